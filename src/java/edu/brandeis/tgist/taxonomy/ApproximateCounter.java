@@ -0,0 +1,204 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Approximate cooccurrence counts in a fixed amount of memory.
+ *
+ * Pair counts go into a count-min sketch, which never underestimates a count
+ * and overestimates it by at most e/width times the number of pairs counted,
+ * with a probability of 1 - e^-depth. Next to the sketch, each term keeps a
+ * small list of candidate neighbours, the ones with the highest estimated
+ * counts seen so far. When a list is full a new neighbour takes the place of
+ * the one with the lowest estimate if its own estimate is higher. Only the
+ * pairs in the candidate lists end up in the taxonomy, so mutual information
+ * is only calculated for those.
+ *
+ * The memory budget is shared by the candidate lists, which take 8 bytes per
+ * candidate, and the sketch, which gets the rest. If the lists would take more
+ * than half of the budget they get fewer candidates per term.
+ *
+ * The counter can be used by several threads at the same time. The sketch is
+ * updated with atomic operations and the candidate lists under one of a set
+ * of locks chosen by term.
+ *
+ * If an exact table is given, all pairs are counted in it as well, which is
+ * slow and takes as much memory as exact counting, but it lets report() say
+ * how well the approximation does.
+ */
+
+public class ApproximateCounter implements PairCounter {
+
+	static final int DEPTH = 4;
+
+	/** The widest sketch whose cells still fit in one array. */
+	static final int MAX_WIDTH = (Integer.MAX_VALUE - 8) / DEPTH;
+
+	static final int LOCKS = 1024;
+
+	static final long[] SEEDS = {
+		0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L };
+
+	AtomicIntegerArray sketch;
+	int width;
+
+	int candidates;
+	int[] neighbours;
+	int[] estimates;
+	int[] sizes;
+	Object[] locks;
+
+	CooccurrenceTable exact;
+
+
+	/**
+	 * Create a counter for a number of terms.
+	 *
+	 * @param terms The number of terms.
+	 * @param memory The memory budget in bytes.
+	 * @param candidates The maximum number of candidate neighbours per term.
+	 * @param exact A table to also count exactly in, or null.
+	 */
+
+	ApproximateCounter(int terms, long memory, int candidates, CooccurrenceTable exact)
+	{
+		terms = Math.max(1, terms);
+		long listMemory = (long) terms * candidates * 8;
+		if (listMemory > memory / 2)
+			candidates = (int) Math.max(1, memory / 2 / terms / 8);
+		this.candidates = candidates;
+		long sketchMemory = memory - (long) terms * candidates * 8 - terms * 4L;
+		this.width = (int) Math.min(MAX_WIDTH, Math.max(1024, sketchMemory / 4 / DEPTH));
+		this.sketch = new AtomicIntegerArray(this.width * DEPTH);
+		this.neighbours = new int[terms * candidates];
+		this.estimates = new int[terms * candidates];
+		this.sizes = new int[terms];
+		this.locks = new Object[LOCKS];
+		for (int i = 0; i < LOCKS; i++)
+			this.locks[i] = new Object();
+		this.exact = exact;
+	}
+
+	@Override
+	public void count(int term1, int term2)
+	{
+		long key = CooccurrenceTable.key(term1, term2);
+		int estimate = Integer.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++)
+			estimate = Math.min(estimate, this.sketch.incrementAndGet(cell(row, key)));
+		offer(term1, term2, estimate);
+		offer(term2, term1, estimate);
+		if (this.exact != null)
+			synchronized (this.exact) {
+				this.exact.add(term1, term2, 1); }
+	}
+
+	private int cell(int row, long key)
+	{
+		long h = (key ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+		h ^= h >>> 29;
+		return (int) ((long) row * this.width + (h & Long.MAX_VALUE) % this.width);
+	}
+
+	/** Return the estimated count of a pair. */
+
+	int estimate(int term1, int term2)
+	{
+		long key = CooccurrenceTable.key(term1, term2);
+		int estimate = Integer.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++)
+			estimate = Math.min(estimate, this.sketch.get(cell(row, key)));
+		return estimate;
+	}
+
+	/**
+	 * Offer a neighbour with its current estimate to the candidates of a term.
+	 */
+
+	private void offer(int term, int neighbour, int estimate)
+	{
+		int first = term * this.candidates;
+		synchronized (this.locks[term % LOCKS]) {
+			int size = this.sizes[term];
+			int min = -1;
+			for (int i = first; i < first + size; i++) {
+				if (this.neighbours[i] == neighbour) {
+					this.estimates[i] = estimate;
+					return; }
+				if (min < 0 || this.estimates[i] < this.estimates[min])
+					min = i; }
+			if (size < this.candidates) {
+				this.neighbours[first + size] = neighbour;
+				this.estimates[first + size] = estimate;
+				this.sizes[term]++;
+			} else if (estimate > this.estimates[min]) {
+				this.neighbours[min] = neighbour;
+				this.estimates[min] = estimate; }
+		}
+	}
+
+	/**
+	 * Put the candidate pairs into a table, with their estimated counts.
+	 *
+	 * @param table The table to add to.
+	 */
+
+	void addTo(CooccurrenceTable table)
+	{
+		for (int term = 0; term < this.sizes.length; term++) {
+			int first = term * this.candidates;
+			for (int i = first; i < first + this.sizes[term]; i++) {
+				int neighbour = this.neighbours[i];
+				if (table.find(term, neighbour) < 0)
+					table.put(term, neighbour, estimate(term, neighbour), 0f); }
+		}
+	}
+
+	/**
+	 * Print the size of the sketch and the error bound for the given number of
+	 * pairs counted. If there are exact counts, also print the recall of the
+	 * pairs that occur at least minCount times and the error of the estimates.
+	 *
+	 * @param table The table with the candidate pairs.
+	 * @param total The number of pairs counted.
+	 * @param minCount The count of the pairs to measure recall on.
+	 */
+
+	void report(CooccurrenceTable table, long total, int minCount)
+	{
+		double epsilon = Math.E / this.width;
+		System.out.println(String.format(
+				"Approximate counts: sketch of %d x %,d, %d candidates per term", DEPTH, this.width, this.candidates));
+		System.out.println(String.format(
+				"Counts are at most %,d too high with probability %.3f",
+				(long) Math.ceil(epsilon * total), 1 - Math.exp(-DEPTH)));
+		if (this.exact == null)
+			return;
+		int frequent = 0, found = 0;
+		long error = 0, maxError = 0;
+		for (int slot = 0; slot < this.exact.capacity(); slot++) {
+			if (! this.exact.isUsed(slot))
+				continue;
+			long key = this.exact.keyAt(slot);
+			int count = this.exact.countAt(slot);
+			int t1 = CooccurrenceTable.first(key);
+			int t2 = CooccurrenceTable.second(key);
+			int kept = table.find(t1, t2);
+			if (count >= minCount) {
+				frequent++;
+				if (kept >= 0) found++; }
+			if (kept >= 0) {
+				long e = table.countAt(kept) - count;
+				error += e;
+				maxError = Math.max(maxError, e); }
+		}
+		System.out.println(String.format(
+				"Exact pairs %,d, kept %,d, recall of pairs with count >= %d: %.4f (%,d of %,d)",
+				this.exact.size(), table.size(), minCount,
+				frequent == 0 ? 1.0 : found / (double) frequent, found, frequent));
+		System.out.println(String.format(
+				"Overestimate of kept pairs: mean %.3f, max %,d",
+				table.size() == 0 ? 0.0 : error / (double) table.size(), maxError));
+	}
+
+}
@@ -0,0 +1,307 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Association scores of the cooccurrence pairs, kept in columns.
+ *
+ * The pairs are taken from a CooccurrenceTable and sorted on their keys. For
+ * each pair there is the number of times the two terms cooccur (countXY) and
+ * the number of cooccurrences of each term with any term (countX and countY),
+ * so the counts make up a proper contingency table over all cooccurrences:
+ *
+ *		          Y                  not Y
+ *		  X       countXY            countX - countXY
+ *		  not X   countY - countXY   N - countX - countY + countXY
+ *
+ * where N is the total count of all pairs. This is unlike the mutual
+ * information in relations-cooc.txt, which uses term counts and the number of
+ * terms as the sample size, and is kept as it is for compatibility.
+ *
+ * When pairs are removed from the table before scoring, the counts of the
+ * terms and N should be taken from the table before that, see marginals(),
+ * otherwise they only add up the pairs that are left. Approximate counts are
+ * not scored, they miss the pairs that were dropped.
+ *
+ * The scores are pointwise mutual information, normalized pointwise mutual
+ * information (between -1 and 1), the log-likelihood ratio (G2) and the Dice
+ * coefficient. They are calculated in one pass over the columns, in chunks on
+ * a fork-join pool. The loops only read and write primitive arrays. Most of
+ * the time goes into logarithms, so those of the term counts are calculated
+ * once per term and those of small counts are looked up in a table.
+ *
+ * Scores are written to relations-scores.bin so relations can be ranked on any
+ * of them without extracting relations again:
+ *
+ *		magic version size total
+ *		term1*size term2*size countXY*size
+ *		pmi*size npmi*size llr*size dice*size
+ *
+ * The total is a long, the scores are floats and everything else is an int.
+ */
+
+public class AssociationScores {
+
+	static final int MAGIC = 0x54474153;  // "TGAS"
+	static final int VERSION = 1;
+
+	/** The number of pairs scored by one task. */
+	static final int CHUNK_SIZE = 1 << 14;
+
+	/** Logarithms of the counts below this are looked up. */
+	static final int LOG_TABLE_SIZE = 1 << 12;
+
+	static final double[] LOGS = new double[LOG_TABLE_SIZE];
+	static {
+		for (int i = 1; i < LOG_TABLE_SIZE; i++)
+			LOGS[i] = Math.log(i);
+	}
+
+	int size;
+	long total;
+
+	int[] term1;
+	int[] term2;
+	int[] countXY;
+	int[] countX;
+	int[] countY;
+
+	/** The count of each term, and what the scores need of it. */
+	long[] marginals;
+	double[] logMarginals;
+	double[] xlogxMarginals;
+	double[] xlogxRests;
+
+	float[] pmi;
+	float[] npmi;
+	float[] llr;
+	float[] dice;
+
+
+	private AssociationScores(int size)
+	{
+		this.size = size;
+		this.term1 = new int[size];
+		this.term2 = new int[size];
+		this.countXY = new int[size];
+		this.pmi = new float[size];
+		this.npmi = new float[size];
+		this.llr = new float[size];
+		this.dice = new float[size];
+	}
+
+	/**
+	 * Collect the pairs of a table into columns, in the order of their keys,
+	 * and add up the counts of each term.
+	 *
+	 * @param table The cooccurrence table.
+	 * @param termCount The number of terms in the taxonomy.
+	 * @return Scores that still have to be calculated with score().
+	 */
+
+	static AssociationScores fromTable(CooccurrenceTable table, int termCount)
+	{
+		return fromTable(table, termCount, null);
+	}
+
+	/**
+	 * Add up the counts of the pairs of each term, for fromTable() when the
+	 * table is filtered afterwards.
+	 *
+	 * @param table The cooccurrence table.
+	 * @param termCount The number of terms in the taxonomy.
+	 * @return The counts, indexed on term identifier.
+	 */
+
+	static long[] marginals(CooccurrenceTable table, int termCount)
+	{
+		long[] marginals = new long[termCount];
+		for (int slot = 0; slot < table.capacity(); slot++) {
+			if (table.isUsed(slot)) {
+				long key = table.keyAt(slot);
+				marginals[CooccurrenceTable.first(key)] += table.countAt(slot);
+				marginals[CooccurrenceTable.second(key)] += table.countAt(slot); }
+		}
+		return marginals;
+	}
+
+	/**
+	 * Collect the pairs of a table into columns, with the counts of the terms
+	 * and N taken from all pairs that were counted.
+	 *
+	 * @param table The cooccurrence table.
+	 * @param termCount The number of terms in the taxonomy.
+	 * @param allMarginals The counts of marginals() before the table was
+	 * filtered, or null to add them up from the table.
+	 * @return Scores that still have to be calculated with score().
+	 */
+
+	static AssociationScores fromTable(CooccurrenceTable table, int termCount, long[] allMarginals)
+	{
+		long[] keys = new long[table.size()];
+		int n = 0;
+		for (int slot = 0; slot < table.capacity(); slot++)
+			if (table.isUsed(slot))
+				keys[n++] = table.keyAt(slot);
+		Arrays.parallelSort(keys);
+		AssociationScores scores = new AssociationScores(n);
+		long[] marginals = new long[termCount];
+		for (int i = 0; i < n; i++) {
+			int t1 = CooccurrenceTable.first(keys[i]);
+			int t2 = CooccurrenceTable.second(keys[i]);
+			int count = table.countAt(table.find(t1, t2));
+			scores.term1[i] = t1;
+			scores.term2[i] = t2;
+			scores.countXY[i] = count;
+			marginals[t1] += count;
+			marginals[t2] += count;
+			scores.total += count; }
+		if (allMarginals != null) {
+			// each pair was counted for both its terms
+			marginals = allMarginals;
+			scores.total = Arrays.stream(marginals).sum() / 2; }
+		scores.marginals = marginals;
+		scores.countX = new int[n];
+		scores.countY = new int[n];
+		for (int i = 0; i < n; i++) {
+			scores.countX[i] = (int) Math.min(Integer.MAX_VALUE, marginals[scores.term1[i]]);
+			scores.countY[i] = (int) Math.min(Integer.MAX_VALUE, marginals[scores.term2[i]]); }
+		return scores;
+	}
+
+	/**
+	 * Calculate all scores. The logarithms that only depend on the count of one
+	 * term are calculated once for each term.
+	 *
+	 * @param threads The number of threads to use.
+	 * @throws IOException
+	 */
+
+	void score(int threads) throws IOException
+	{
+		int terms = this.marginals.length;
+		this.logMarginals = new double[terms];
+		this.xlogxMarginals = new double[terms];
+		this.xlogxRests = new double[terms];
+		for (int t = 0; t < terms; t++) {
+			this.logMarginals[t] = log(this.marginals[t]);
+			this.xlogxMarginals[t] = xlogx(this.marginals[t]);
+			this.xlogxRests[t] = xlogx(this.total - this.marginals[t]); }
+		int chunks = (this.size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		if (threads <= 1) {
+			score(0, this.size);
+			return; }
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(
+					chunk -> score(chunk * CHUNK_SIZE, Math.min(this.size, (chunk + 1) * CHUNK_SIZE))))
+					.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ex);
+		} catch (ExecutionException ex) {
+			throw new IOException(ex.getCause());
+		} finally {
+			pool.shutdownNow(); }
+	}
+
+	/**
+	 * Calculate the scores of the pairs from start up to end.
+	 */
+
+	private void score(int start, int end)
+	{
+		long n = this.total;
+		double xlogxN = xlogx(n);
+		double logN = log(n);
+		for (int i = start; i < end; i++) {
+			int t1 = this.term1[i];
+			int t2 = this.term2[i];
+			long xy = this.countXY[i];
+			long x = this.countX[i];
+			long y = this.countY[i];
+			double logXY = log(xy);
+			double pmi = logXY + logN - this.logMarginals[t1] - this.logMarginals[t2];
+			this.pmi[i] = (float) pmi;
+			// -log p(x,y) is zero if the pair is the only one
+			this.npmi[i] = xy == n ? 1f : (float) (pmi / (logN - logXY));
+			this.llr[i] = (float) (2 * (xy * logXY + xlogx(x - xy) + xlogx(y - xy) + xlogx(n - x - y + xy)
+					- this.xlogxMarginals[t1] - this.xlogxRests[t1]
+					- this.xlogxMarginals[t2] - this.xlogxRests[t2] + xlogxN));
+			this.dice[i] = (float) (2.0 * xy / (x + y));
+		}
+	}
+
+	private static double log(long x)
+	{
+		return x < LOG_TABLE_SIZE ? LOGS[(int) x] : Math.log(x);
+	}
+
+	private static double xlogx(long x)
+	{
+		return x <= 0 ? 0 : x * log(x);
+	}
+
+	/**
+	 * Write the scores.
+	 *
+	 * @param file The file to write to.
+	 * @throws IOException
+	 */
+
+	void write(File file) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.size);
+			out.writeLong(this.total);
+			for (int[] column : new int[][] { this.term1, this.term2, this.countXY })
+				for (int value : column)
+					out.writeInt(value);
+			for (float[] column : new float[][] { this.pmi, this.npmi, this.llr, this.dice })
+				for (float value : column)
+					out.writeFloat(value);
+		}
+	}
+
+	/**
+	 * Read scores written by write(). The marginal counts are not stored, so
+	 * countX, countY and marginals are null.
+	 *
+	 * @param file The file to read from.
+	 * @return The scores.
+	 * @throws IOException
+	 */
+
+	static AssociationScores read(File file) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("not an association scores file: " + file);
+			AssociationScores scores = new AssociationScores(in.readInt());
+			scores.total = in.readLong();
+			for (int[] column : new int[][] { scores.term1, scores.term2, scores.countXY })
+				for (int i = 0; i < scores.size; i++)
+					column[i] = in.readInt();
+			for (float[] column : new float[][] { scores.pmi, scores.npmi, scores.llr, scores.dice })
+				for (int i = 0; i < scores.size; i++)
+					column[i] = in.readFloat();
+			return scores;
+		}
+	}
+
+}
@@ -0,0 +1,367 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Micro benchmarks for the inner loops of building a taxonomy. These run on the
+ * features of an existing taxonomy:
+ *
+ *		java -cp TGistTaxonomy.jar edu.brandeis.tgist.taxonomy.Benchmark window <taxonomy-dir>
+ *		java -cp TGistTaxonomy.jar edu.brandeis.tgist.taxonomy.Benchmark scores <taxonomy-dir>
+ *		java -cp TGistTaxonomy.jar edu.brandeis.tgist.taxonomy.Benchmark contexts <taxonomy-dir>
+ *		java -cp TGistTaxonomy.jar edu.brandeis.tgist.taxonomy.Benchmark hierarchy [terms]
+ *		java -cp TGistTaxonomy.jar edu.brandeis.tgist.taxonomy.Benchmark append-hierarchy [terms]
+ *
+ * Each benchmark is run a few times after a warm-up run and reports the fastest
+ * run, so the numbers are about the code and not about the JIT. The last one
+ * runs once and is also a check, it fails if adding terms to a hierarchy does
+ * not give the same hierarchy as building it again.
+ */
+
+public class Benchmark {
+
+	/** The maximum number of vectors read into memory. */
+	static final int MAX_VECTORS = 1_000_000;
+
+	static final int RUNS = 5;
+
+	/** The default number of terms for the hierarchy benchmark. */
+	static final int HIERARCHY_TERMS = 1_200_000;
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 2 && args[0].equals("window"))
+			benchmarkWindow(new Taxonomy(args[1]));
+		else if (args.length == 2 && args[0].equals("scores"))
+			benchmarkScores(new Taxonomy(args[1]));
+		else if (args.length == 2 && args[0].equals("contexts"))
+			benchmarkContexts(new Taxonomy(args[1]));
+		else if (args.length <= 2 && args.length > 0 && args[0].equals("hierarchy"))
+			benchmarkHierarchy(args.length == 2 ? Integer.parseInt(args[1]) : HIERARCHY_TERMS);
+		else if (args.length <= 2 && args.length > 0 && args[0].equals("append-hierarchy"))
+			benchmarkAppendHierarchy(args.length == 2 ? Integer.parseInt(args[1]) : HIERARCHY_TERMS);
+		else
+			System.out.println(
+					"Usage: Benchmark (window|scores|contexts) <taxonomy-dir>\n" +
+					"       Benchmark (hierarchy|append-hierarchy) [terms]");
+	}
+
+	/**
+	 * Read the term vectors of a taxonomy into memory, as copies so they can be
+	 * used after the stream is closed. The file name and the features used by
+	 * the window are decoded up front.
+	 */
+
+	static List<LazyFeatureVector> readVectors(Taxonomy taxonomy) throws IOException
+	{
+		CheckPoint checkpoint = new CheckPoint(true);
+		List<LazyFeatureVector> vectors = new ArrayList<>();
+		try (FeatureStream stream = taxonomy.openFeatures(true)) {
+			while (stream.hasNext() && vectors.size() < MAX_VECTORS) {
+				FeatureVector vector = stream.next();
+				if (vector.termId < 0) continue;
+				LazyFeatureVector copy = new LazyFeatureVector();
+				copy.setFrom((LazyFeatureVector) vector);
+				copy.getFileName();
+				copy.getFeature(FeatureVector.DOC_LOC);
+				vectors.add(copy); }
+		}
+		checkpoint.report(String.format("Read %,d vectors", vectors.size()));
+		return vectors;
+	}
+
+	/**
+	 * Time CooccurrenceWindow for several window sizes, with and without a limit
+	 * on sentences. Vectors are fed through one MutableFeatureVector, like in
+	 * addRelations(), so this includes copying them into the window. The cost
+	 * per vector should not depend much on the size of the window.
+	 */
+
+	static void benchmarkWindow(Taxonomy taxonomy) throws IOException
+	{
+		List<LazyFeatureVector> vectors = readVectors(taxonomy);
+		System.out.println("\n  size  sentences   ns/vector   pairs/vector");
+		for (int sentences : new int[] { -1, 1 }) {
+			for (int size : new int[] { 2, 3, 5, 8, 10 }) {
+				long best = Long.MAX_VALUE;
+				long pairs = 0;
+				for (int run = 0; run <= RUNS; run++) {
+					CooccurrenceWindow window = new CooccurrenceWindow(size, sentences);
+					MutableFeatureVector current = new MutableFeatureVector();
+					pairs = 0;
+					long start = System.nanoTime();
+					for (LazyFeatureVector vector : vectors) {
+						current.copyFrom(vector);
+						window.update(current);
+						pairs += window.pairCount(); }
+					long time = System.nanoTime() - start;
+					// the first run is the warm-up
+					if (run > 0)
+						best = Math.min(best, time);
+				}
+				System.out.println(String.format("  %4d  %9d  %10.1f  %13.2f",
+						size, sentences,
+						best / (double) Math.max(1, vectors.size()),
+						pairs / (double) Math.max(1, vectors.size())));
+			}
+		}
+	}
+
+	/**
+	 * Time the association scores of the cooccurrence relations of a taxonomy
+	 * for several numbers of threads. Only the scoring pass is timed, not
+	 * collecting the pairs into columns.
+	 */
+
+	static void benchmarkScores(Taxonomy taxonomy) throws IOException
+	{
+		TaxonomyLoader.loadCooccurrenceRelations(
+				taxonomy.location + File.separator + Taxonomy.RELATIONS_FILE, taxonomy);
+		AssociationScores scores = AssociationScores.fromTable(
+				taxonomy.cooccurrences, taxonomy.technologies.size());
+		System.out.println(String.format("\nScoring %,d pairs", scores.size));
+		System.out.println("\n  threads        ms   ns/pair");
+		int processors = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= processors; threads = threads < processors
+				? Math.min(2 * threads, processors) : processors + 1) {
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run <= RUNS; run++) {
+				long start = System.nanoTime();
+				scores.score(threads);
+				long time = System.nanoTime() - start;
+				if (run > 0)
+					best = Math.min(best, time);
+			}
+			System.out.println(String.format("  %7d  %8.2f  %8.1f",
+					threads, best / 1e6, best / (double) Math.max(1, scores.size)));
+		}
+	}
+
+	/**
+	 * Time building the contexts of term relations. The pairs of vectors that
+	 * make a term relation are collected first, with the window used by
+	 * addRelations(), so only building the contexts is timed. A small set of
+	 * pairs is gone through several times per run.
+	 */
+
+	static void benchmarkContexts(Taxonomy taxonomy) throws IOException
+	{
+		List<LazyFeatureVector> vectors = readVectors(taxonomy);
+		List<FeatureVector[]> pairs = new ArrayList<>();
+		CooccurrenceWindow window = new CooccurrenceWindow(Taxonomy.WINDOW_SIZE, Taxonomy.WINDOW_SENTENCES);
+		for (LazyFeatureVector vector : vectors) {
+			window.update(vector);
+			for (int i = 0; i < window.pairCount(); i++) {
+				FeatureVector v1 = window.pairVector(i);
+				FeatureVector v2 = window.last();
+				if (v1.potentiallyRelatedTo(v2)
+						&& v2.getSentenceStart() - v1.getSentenceEnd() < 6) {
+					// decode the features up front
+					v1.getFeature(FeatureVector.SENT_LOC);
+					v1.getFeature(FeatureVector.PREV_N3);
+					v1.getFeature(FeatureVector.NEXT_N3);
+					v2.getFeature(FeatureVector.PREV_N3);
+					v2.getFeature(FeatureVector.NEXT_N3);
+					pairs.add(new FeatureVector[] { v1, v2 }); }
+			}
+		}
+		int repeats = Math.max(1, 100_000 / Math.max(1, pairs.size()));
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run <= RUNS; run++) {
+			long start = System.nanoTime();
+			for (int r = 0; r < repeats; r++) {
+				for (FeatureVector[] pair : pairs) {
+					FeatureVector v1 = pair[0];
+					FeatureVector v2 = pair[1];
+					TermRelation.buildContext(
+							v1.getFileName(), v2.getFeature(FeatureVector.PREV_V),
+							taxonomy.getTechnology(v1.termId), taxonomy.getTechnology(v2.termId),
+							v1, v2, v1.getSentenceEnd(), v2.getSentenceStart()); }
+			}
+			long time = System.nanoTime() - start;
+			if (run > 0)
+				best = Math.min(best, time);
+		}
+		System.out.println(String.format("\nBuilt %,d contexts %,d times, %.1f ns/relation",
+				pairs.size(), repeats, best / (double) Math.max(1, (long) pairs.size() * repeats)));
+	}
+
+	/**
+	 * Time the trie of the righthand head rule and measure its heap, on made up
+	 * terms. The terms have one to four tokens from a vocabulary where some
+	 * tokens are much more frequent than others, so that many terms share their
+	 * heads, like real terms do. The heap is measured with the trie built and
+	 * the terms themselves are not counted. Finding all hypernyms, with the
+	 * terms divided over tries by their heads, is timed for several numbers of
+	 * threads.
+	 */
+
+	static void benchmarkHierarchy(int termCount) throws IOException
+	{
+		List<String> names = madeUpTerms(termCount);
+		System.out.println(String.format("\nBuilding a head trie for %,d terms", termCount));
+		long best = Long.MAX_VALUE;
+		long heap = 0;
+		int nodes = 0, tokens = 0, related = 0;
+		for (int run = 0; run <= RUNS; run++) {
+			long before = usedHeap();
+			long start = System.nanoTime();
+			HeadTrie trie = new HeadTrie(termCount);
+			for (int term = 0; term < termCount; term++) {
+				int node = trie.insert(names.get(term));
+				if (node >= 0)
+					trie.terms[node] = term; }
+			related = 0;
+			for (int node = 1; node < trie.nodeCount; node++)
+				if (trie.terms[node] >= 0 && trie.hypernym(node) >= 0)
+					related++;
+			long time = System.nanoTime() - start;
+			if (run > 0)
+				best = Math.min(best, time);
+			heap = usedHeap() - before;
+			nodes = trie.nodeCount;
+			tokens = trie.tokenCount;
+		}
+		System.out.println(String.format(
+				"%,d nodes, %,d tokens, %,d terms with a hypernym", nodes, tokens, related));
+		System.out.println(String.format(
+				"Build %.1f ms, %.1f ns/term, heap %.1f MB, %.1f bytes/term",
+				best / 1e6, best / (double) Math.max(1, termCount),
+				heap / (double) (1 << 20), heap / (double) Math.max(1, termCount)));
+		String[] terms = names.toArray(new String[termCount]);
+		System.out.println("\n  threads        ms   ns/term");
+		int processors = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= processors; threads = threads < processors
+				? Math.min(2 * threads, processors) : processors + 1) {
+			best = Long.MAX_VALUE;
+			for (int run = 0; run <= RUNS; run++) {
+				long start = System.nanoTime();
+				HeadTrie.hypernyms(terms, threads);
+				long time = System.nanoTime() - start;
+				if (run > 0)
+					best = Math.min(best, time);
+			}
+			System.out.println(String.format("  %7d  %8.1f  %8.1f",
+					threads, best / 1e6, best / (double) Math.max(1, termCount)));
+		}
+	}
+
+	/**
+	 * Make up terms of one to four tokens, see benchmarkHierarchy(). The same
+	 * number of terms always gives the same terms.
+	 */
+
+	static List<String> madeUpTerms(int termCount)
+	{
+		Random random = new Random(1);
+		String[] vocabulary = new String[Math.max(1000, termCount / 10)];
+		for (int i = 0; i < vocabulary.length; i++)
+			vocabulary[i] = Integer.toString(i * 7919, 36);
+		List<String> names = new ArrayList<>(termCount);
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < termCount; i++) {
+			name.setLength(0);
+			int length = 1 + random.nextInt(4);
+			for (int t = 0; t < length; t++) {
+				double r = random.nextDouble();
+				if (t > 0) name.append(' ');
+				name.append(vocabulary[(int) (r * r * r * vocabulary.length)]); }
+			names.add(name.toString()); }
+		return names;
+	}
+
+	/**
+	 * Time adding a batch of new terms to a hierarchy with addToHierarchy() and
+	 * check the result against building the hierarchy again with rhhr(). A tenth
+	 * of the made up terms, taken at random, is added to the hierarchy of the
+	 * others, in the order of their identifiers like appendData() does, so the
+	 * batch has chains of new terms that end in each other. The hypernyms and
+	 * hyponyms of all terms and the hierarchy files are compared. The taxonomy
+	 * is made in a temporary directory that is removed afterwards.
+	 */
+
+	static void benchmarkAppendHierarchy(int termCount) throws IOException
+	{
+		List<String> names = new ArrayList<>(new LinkedHashSet<>(madeUpTerms(termCount)));
+		Collections.shuffle(names, new Random(2));
+		int split = names.size() - names.size() / 10;
+		Path directory = Files.createTempDirectory("hierarchy");
+		try {
+			Taxonomy taxonomy = new Taxonomy(
+					directory.resolve("taxonomy").toString(), directory.toString());
+			File hFile = new File(taxonomy.location, Taxonomy.HIERARCHY_FILE);
+			for (String name : names.subList(0, split))
+				taxonomy.addTechnology(name, 1.0f, 1);
+			taxonomy.rhhr();
+			for (String name : names.subList(split, names.size()))
+				taxonomy.addTechnology(name, 1.0f, 1);
+			long start = System.nanoTime();
+			taxonomy.addToHierarchy(taxonomy.technologies.subList(split, names.size()));
+			long addTime = System.nanoTime() - start;
+			List<String> added = hierarchyState(taxonomy);
+			byte[] addedFile = Files.readAllBytes(hFile.toPath());
+			start = System.nanoTime();
+			taxonomy.rhhr();
+			long buildTime = System.nanoTime() - start;
+			List<String> built = hierarchyState(taxonomy);
+			byte[] builtFile = Files.readAllBytes(hFile.toPath());
+			System.out.println(String.format(
+					"\nAdded %,d terms to %,d in %.1f ms, built all of them in %.1f ms",
+					names.size() - split, split, addTime / 1e6, buildTime / 1e6));
+			int differences = 0;
+			for (int i = 0; i < built.size(); i++) {
+				if (added.get(i).equals(built.get(i)))
+					continue;
+				if (differences++ < 5)
+					System.out.println(String.format(
+							"  added  %s\n  built  %s", added.get(i), built.get(i))); }
+			if (differences > 0 || ! Arrays.equals(addedFile, builtFile))
+				throw new IllegalStateException(String.format(
+						"Adding terms differs from rhhr() for %,d terms, hierarchy files %s",
+						differences, Arrays.equals(addedFile, builtFile) ? "equal" : "differ"));
+			System.out.println("Same hierarchy as rhhr()");
+		} finally {
+			try (Stream<Path> paths = Files.walk(directory)) {
+				for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+					Files.delete(path); }
+		}
+	}
+
+	/** The hypernyms and hyponyms of each technology, as one line per technology. */
+
+	private static List<String> hierarchyState(Taxonomy taxonomy)
+	{
+		List<String> state = new ArrayList<>(taxonomy.technologies.size());
+		StringBuilder line = new StringBuilder();
+		for (Technology tech : taxonomy.technologies) {
+			line.setLength(0);
+			line.append(tech.name).append(" <");
+			for (Technology hypernym : tech.hypernyms)
+				line.append(' ').append(hypernym.name);
+			line.append(" >");
+			for (Technology hyponym : tech.hyponyms)
+				line.append(' ').append(hyponym.name);
+			state.add(line.toString()); }
+		return state;
+	}
+
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
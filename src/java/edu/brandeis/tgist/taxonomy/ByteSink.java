@@ -0,0 +1,40 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable byte array that varints and strings can be written to.
+ */
+
+class ByteSink {
+
+	byte[] bytes = new byte[256];
+	int size;
+
+	void reset() {
+		this.size = 0;
+	}
+
+	void write(int b) {
+		if (this.size == this.bytes.length)
+			this.bytes = Arrays.copyOf(this.bytes, this.size * 2);
+		this.bytes[this.size++] = (byte) b;
+	}
+
+	void write(byte[] b) {
+		for (byte x : b) write(x);
+	}
+
+	void writeVarint(int value) {
+		while ((value & ~0x7f) != 0) {
+			write((value & 0x7f) | 0x80);
+			value >>>= 7; }
+		write(value);
+	}
+
+	void writeTo(OutputStream out) throws IOException {
+		out.write(this.bytes, 0, this.size);
+	}
+}
@@ -0,0 +1,190 @@
+package edu.brandeis.tgist.taxonomy;
+
+import static edu.brandeis.tgist.taxonomy.Utils.blue;
+import static edu.brandeis.tgist.taxonomy.Utils.red;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The context of one occurrence of a term relation: the document it was found
+ * in and the text around and between the two terms.
+ */
+
+class Context {
+
+	String document;
+	String pred;
+	Technology source, target;
+	List<Span> elements;
+	boolean hasPred;
+	boolean hasSource;
+	boolean hasTarget;
+
+	Context(String document, String pred, Technology source, Technology target) {
+		this.document = document;
+		this.pred = pred;
+		this.source = source;
+		this.target = target;
+		this.elements = new ArrayList();
+		this.hasPred = false;
+		this.hasSource = false;
+		this.hasTarget = false;
+	}
+
+	@Override
+	public String toString() {
+		return "<Context>";
+	}
+
+	void addSpan(String[] toks) {
+		StringBuilder span = new StringBuilder();
+		for (String tok : toks) {
+			if (tok.equals("^")) continue;
+			if (span.length() > 0) span.append(' ');
+			span.append(tok); }
+		this.elements.add(new Span(span.toString()));
+	}
+
+	void addTerm(Technology tech) {
+		this.elements.add(new Term(tech.name));
+	}
+
+	/**
+	 * Add the tokens between the two terms, with the predicate as a separate
+	 * element if it is one of the token sequences.
+	 *
+	 * @param p1 The offset after the first term.
+	 * @param v1Next3 The three tokens after the first term.
+	 * @param v2Prev3 The three tokens before the second term.
+	 * @param p2 The offset of the second term.
+	 * @param pred The predicate.
+	 */
+	void addPivot(int p1, String[] v1Next3, String[] v2Prev3, int p2, Predicate pred) {
+
+		// p1 is the offset after the first term and p2 the offset before the
+		// second term so for the number of elements in the span we just need
+		// to substract
+		int span = p2 - p1;
+
+		if (span == 0)
+			// nothing between the terms, so nothing to so
+			return;
+		if (span < 0 || span > 6) {
+			Logger.getLogger(TermRelation.class.getName()).log(
+					Level.WARNING, "Unexpected distance between terms");
+			return; }
+		// up to three tokens after the first term and the rest before the second
+		String[] toks = new String[span];
+		for (int i = 0; i < span; i++)
+			toks[i] = i < 3 ? v1Next3[i] : v2Prev3[i - span + 3];
+		int at = pred.find(toks);
+		if (at < 0) {
+			this.elements.add(new Span(join(toks, 0, span)));
+			return; }
+		this.hasPred = true;
+		String left = join(toks, 0, at).trim();
+		String right = join(toks, at + pred.tokens.length, span).trim();
+		if (! left.isEmpty())
+			this.elements.add(new Span(left));
+		this.elements.add(new Pred(pred.name));
+		if (! right.isEmpty())
+			this.elements.add(new Span(right));
+	}
+
+	private static String join(String[] toks, int start, int end) {
+		if (end - start == 1)
+			return toks[start];
+		StringBuilder joined = new StringBuilder();
+		for (int i = start; i < end; i++) {
+			if (i > start) joined.append(' ');
+			joined.append(toks[i]); }
+		return joined.toString();
+	}
+
+	void pp() {
+		for (Span element : this.elements)
+			element.pp();
+		System.out.println();
+	}
+
+	String asTabSeparatedString() {
+		List<String> els = new ArrayList();
+		for (Span e : this.elements) {
+			if (! e.isEmpty()) els.add(e.asString()); }
+		return String.join("\t", els);
+	}
+
+	void addElement(String text) {
+		if (text.startsWith("Span"))
+			this.elements.add(new Span(text.substring(5)));
+		else if (text.startsWith("Pred"))
+			this.elements.add(new Pred(text.substring(5)));
+		else if (text.equals("Term")) {
+			if (! this.hasSource) {
+				this.hasSource = true;
+				this.elements.add(new Term(this.source.name)); }
+			else {
+				this.hasTarget = true;
+				this.elements.add(new Term(this.target.name)); }
+		}
+	}
+
+}
+
+
+class Span {
+
+	String span;
+
+	Span(String text) {
+		this.span = text; }
+
+	boolean isEmpty() {
+		return this.span.equals(""); }
+
+	void pp() {
+		System.out.print(this.span + " "); }
+
+	/**
+	 * Return the span as a string for use in the TaxonomyWriter.
+	 */
+	String asString() {
+		return String.format("%s %s", this.getClass().getSimpleName(), this.span); }
+}
+
+
+class Term extends Span {
+
+	public Term(String text)
+	{
+		super(text);
+	}
+	
+	@Override void pp()
+	{
+		System.out.print(blue(this.span) + ' ');
+	}
+
+	@Override String asString()
+	{
+		return "Term";
+	}
+
+}
+
+
+class Pred extends Span {
+	
+	public Pred(String text)
+	{
+		super(text);
+	}
+
+	@Override void pp()
+	{
+		System.out.print(red(this.span) + ' ');
+	}
+
+}
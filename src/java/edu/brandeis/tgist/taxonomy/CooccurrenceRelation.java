@@ -52,7 +52,7 @@ public class CooccurrenceRelation implements Comparable {
 	}
 
 	public String asTabSeparatedString(Technology technology) {
-		if (technology.name.equals(source.name)) {
+		if (technology.id == this.source.id) {
 			return String.format("%d\t%.4f\t%s\n",
 					this.count, this.mi, this.target.name);
 		} else {
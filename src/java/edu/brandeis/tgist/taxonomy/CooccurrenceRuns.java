@@ -0,0 +1,141 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts of pairs of terms that are kept on disk instead of in memory.
+ *
+ * Pairs are packed into longs like in CooccurrenceTable and added to a
+ * PairBuffer, a fixed-size buffer of keys and counts. A full buffer is sorted,
+ * equal keys are added up and the result is written to a run file in the
+ * taxonomy directory. Reading the counts back is a k-way merge over all runs,
+ * which gives each key once with its total count, in the order of the keys.
+ * Memory use is the size of the buffers and does not depend on the number of
+ * distinct pairs.
+ *
+ * Several threads can count at the same time, each with its own buffer from
+ * newBuffer(), all buffers write runs into the same set.
+ *
+ *		CooccurrenceRuns runs = new CooccurrenceRuns(directory, "pairs", 1_000_000);
+ *		PairBuffer buffer = runs.newBuffer();
+ *		buffer.count(term1, term2);
+ *		...
+ *		try (RunMerger merger = runs.merge()) {
+ *			while (merger.next())
+ *				System.out.println(merger.key() + " " + merger.count());
+ *		}
+ *		runs.delete();
+ *
+ * A run is a sequence of records of a long key and an int count.
+ */
+
+public class CooccurrenceRuns {
+
+	/** The largest number of runs that are merged at once. */
+	static final int FAN_IN = 64;
+
+	static final int RECORD_SIZE = 12;
+
+	File directory;
+	String prefix;
+	int bufferSize;
+	int runCount;
+	final List<File> runs = new ArrayList<>();
+	final List<PairBuffer> buffers = new ArrayList<>();
+
+
+	/**
+	 * Create an empty set of runs.
+	 *
+	 * @param directory The directory to write runs to.
+	 * @param prefix The start of the names of the run files.
+	 * @param bufferSize The number of pairs each buffer holds.
+	 */
+
+	CooccurrenceRuns(File directory, String prefix, int bufferSize)
+	{
+		this.directory = directory;
+		this.prefix = prefix;
+		this.bufferSize = Math.max(1024, bufferSize);
+	}
+
+	/**
+	 * Return the number of pairs that fit in a memory budget, spread over a
+	 * number of buffers.
+	 */
+
+	static int bufferSize(long memory, int buffers)
+	{
+		return (int) Math.min(Integer.MAX_VALUE - 8, memory / RECORD_SIZE / Math.max(1, buffers));
+	}
+
+	/** Create a buffer that spills into this set of runs. */
+
+	synchronized PairBuffer newBuffer()
+	{
+		PairBuffer buffer = new PairBuffer(this, this.bufferSize);
+		this.buffers.add(buffer);
+		return buffer;
+	}
+
+	synchronized File newRun()
+	{
+		File run = new File(this.directory, String.format("%s-%d.run", this.prefix, this.runCount++));
+		this.runs.add(run);
+		return run;
+	}
+
+	/**
+	 * Spill what is left in the buffers and merge the runs. The buffers are
+	 * released and can not be used after this. Runs are first
+	 * merged into larger runs until there are no more than FAN_IN of them, so
+	 * the merge can be repeated cheaply.
+	 *
+	 * @return A merger over all pairs, the caller should close it.
+	 * @throws IOException
+	 */
+
+	synchronized RunMerger merge() throws IOException
+	{
+		for (PairBuffer buffer : this.buffers) {
+			buffer.spill();
+			buffer.keys = null;
+			buffer.counts = null; }
+		this.buffers.clear();
+		while (this.runs.size() > FAN_IN) {
+			List<File> group = new ArrayList<>(this.runs.subList(0, FAN_IN));
+			this.runs.subList(0, FAN_IN).clear();
+			File merged = newRun();
+			try (RunMerger merger = new RunMerger(group);
+					DataOutputStream out = openRun(merged)) {
+				while (merger.next()) {
+					out.writeLong(merger.key());
+					out.writeInt(merger.count()); }
+			}
+			for (File run : group)
+				run.delete();
+		}
+		return new RunMerger(this.runs);
+	}
+
+	/** Delete all run files. */
+
+	synchronized void delete()
+	{
+		for (File run : this.runs)
+			run.delete();
+		this.runs.clear();
+	}
+
+	static DataOutputStream openRun(File run) throws IOException
+	{
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+	}
+
+}
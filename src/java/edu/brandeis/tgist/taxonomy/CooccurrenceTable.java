@@ -0,0 +1,370 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The cooccurrence relations of a taxonomy.
+ *
+ * Cooccurrence is symmetric, so each pair of terms is stored once, keyed on the
+ * two term identifiers packed into a long with the smaller identifier in the
+ * high half. The table uses open addressing with linear probing over parallel
+ * arrays of keys, counts and mutual information values, there are no objects
+ * per pair.
+ *
+ * For browsing and writing the relations of one term there is a per-term view,
+ * which lists for each term the positions of its pairs, ordered on the
+ * identifier of the other term. The view is built when first needed and
+ * dropped when pairs are added or removed. CooccurrenceRelation instances are
+ * only created on request, see relations().
+ *
+ *		int term = technology.id;
+ *		for (int i = table.start(term); i < table.end(term); i++)
+ *			System.out.println(table.target(i) + " " + table.count(i));
+ */
+
+public class CooccurrenceTable implements PairCounter {
+
+	/** Key used for empty slots, no pair of identifiers packs to this. */
+	static final long EMPTY = -1L;
+
+	/** The technologies of the taxonomy, for creating relations. */
+	List<Technology> technologies;
+
+	long[] keys;
+	int[] counts;
+	float[] mis;
+	int size;
+	int mask;
+
+	// The per-term view: the entries of term t are at offsets[t] up to
+	// offsets[t+1], each entry has the other term in the high half and the
+	// slot of the pair in the low half.
+	int[] offsets;
+	long[] entries;
+
+
+	CooccurrenceTable(List<Technology> technologies)
+	{
+		this(technologies, 1024);
+	}
+
+	/**
+	 * Create a table that holds the given number of pairs without growing.
+	 *
+	 * @param technologies The technologies of the taxonomy.
+	 * @param expected The expected number of pairs.
+	 */
+
+	CooccurrenceTable(List<Technology> technologies, int expected)
+	{
+		this.technologies = technologies;
+		allocate(Integer.highestOneBit(Math.max(16, expected + expected / 2)) << 1);
+	}
+
+	private void allocate(int capacity)
+	{
+		this.keys = new long[capacity];
+		this.counts = new int[capacity];
+		this.mis = new float[capacity];
+		this.mask = capacity - 1;
+		this.size = 0;
+		Arrays.fill(this.keys, EMPTY);
+	}
+
+	static long key(int term1, int term2)
+	{
+		return term1 < term2
+				? ((long) term1 << 32) | term2
+				: ((long) term2 << 32) | term1;
+	}
+
+	static int first(long key)
+	{
+		return (int) (key >>> 32);
+	}
+
+	static int second(long key)
+	{
+		return (int) key;
+	}
+
+	/** Return the number of pairs in the table. */
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	/** Return the number of slots, for iterating over all pairs with isUsed(). */
+
+	int capacity()
+	{
+		return this.keys.length;
+	}
+
+	boolean isUsed(int slot)
+	{
+		return this.keys[slot] != EMPTY;
+	}
+
+	long keyAt(int slot)
+	{
+		return this.keys[slot];
+	}
+
+	int countAt(int slot)
+	{
+		return this.counts[slot];
+	}
+
+	float miAt(int slot)
+	{
+		return this.mis[slot];
+	}
+
+	void setMi(int slot, float mi)
+	{
+		this.mis[slot] = mi;
+	}
+
+	/**
+	 * Return the slot of a pair, or -1 if the pair is not in the table.
+	 */
+
+	int find(int term1, int term2)
+	{
+		long key = key(term1, term2);
+		int slot = slot(key);
+		while (this.keys[slot] != EMPTY) {
+			if (this.keys[slot] == key)
+				return slot;
+			slot = (slot + 1) & this.mask; }
+		return -1;
+	}
+
+	/**
+	 * Add to the count of a pair, adding the pair if needed.
+	 *
+	 * @return The slot of the pair.
+	 */
+
+	int add(int term1, int term2, int count)
+	{
+		int slot = insert(key(term1, term2));
+		this.counts[slot] += count;
+		return slot;
+	}
+
+	@Override
+	public void count(int term1, int term2)
+	{
+		add(term1, term2, 1);
+	}
+
+	/**
+	 * Set the count and mutual information of a pair, adding the pair if needed.
+	 */
+
+	void put(int term1, int term2, int count, float mi)
+	{
+		int slot = insert(key(term1, term2));
+		this.counts[slot] = count;
+		this.mis[slot] = mi;
+	}
+
+	private int insert(long key)
+	{
+		int slot = slot(key);
+		while (this.keys[slot] != EMPTY) {
+			if (this.keys[slot] == key)
+				return slot;
+			slot = (slot + 1) & this.mask; }
+		if ((this.size + 1) * 3L > this.keys.length * 2L) {
+			grow();
+			return insert(key); }
+		this.keys[slot] = key;
+		this.size++;
+		this.offsets = null;
+		this.entries = null;
+		return slot;
+	}
+
+	private void grow()
+	{
+		long[] oldKeys = this.keys;
+		int[] oldCounts = this.counts;
+		float[] oldMis = this.mis;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY)
+				copy(oldKeys[i], oldCounts[i], oldMis[i]); }
+	}
+
+	private void copy(long key, int count, float mi)
+	{
+		int slot = slot(key);
+		while (this.keys[slot] != EMPTY)
+			slot = (slot + 1) & this.mask;
+		this.keys[slot] = key;
+		this.counts[slot] = count;
+		this.mis[slot] = mi;
+		this.size++;
+	}
+
+	private int slot(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & this.mask;
+	}
+
+	/**
+	 * Add the counts of another table to this one.
+	 *
+	 * @param other A table for the same technologies.
+	 */
+
+	void addAll(CooccurrenceTable other)
+	{
+		for (int slot = 0; slot < other.keys.length; slot++) {
+			long key = other.keys[slot];
+			if (key != EMPTY)
+				add(first(key), second(key), other.counts[slot]); }
+	}
+
+	/**
+	 * Remove pairs with a count below minCount if one of the two terms has at
+	 * least minRelations relations. This is the table version of filtering the
+	 * relations of each term separately, since a pair is shared by both terms
+	 * it is removed for both.
+	 *
+	 * @param minRelations Terms with fewer relations keep all of them.
+	 * @param minCount The count a pair needs to be kept.
+	 */
+
+	void filter(int minRelations, int minCount)
+	{
+		int[] degrees = new int[maxTerm() + 1];
+		for (long key : this.keys) {
+			if (key != EMPTY) {
+				degrees[first(key)]++;
+				degrees[second(key)]++; }
+		}
+		long[] oldKeys = this.keys;
+		int[] oldCounts = this.counts;
+		float[] oldMis = this.mis;
+		int kept = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY && keep(oldKeys[i], oldCounts[i], degrees, minRelations, minCount))
+				kept++; }
+		allocate(Integer.highestOneBit(Math.max(16, kept + kept / 2)) << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY && keep(oldKeys[i], oldCounts[i], degrees, minRelations, minCount))
+				copy(oldKeys[i], oldCounts[i], oldMis[i]); }
+		this.offsets = null;
+		this.entries = null;
+	}
+
+	static boolean keep(long key, int count, int[] degrees, int minRelations, int minCount)
+	{
+		return count >= minCount
+				|| (degrees[first(key)] < minRelations && degrees[second(key)] < minRelations);
+	}
+
+	private int maxTerm()
+	{
+		int max = -1;
+		for (long key : this.keys)
+			if (key != EMPTY)
+				max = Math.max(max, second(key));
+		return max;
+	}
+
+	/**
+	 * Build the per-term view. Entries are counted per term, placed, and then
+	 * sorted within each term, which orders them on the other term.
+	 */
+
+	private void index()
+	{
+		int[] offsets = new int[maxTerm() + 2];
+		for (long key : this.keys) {
+			if (key != EMPTY) {
+				offsets[first(key) + 1]++;
+				offsets[second(key) + 1]++; }
+		}
+		for (int t = 1; t < offsets.length; t++)
+			offsets[t] += offsets[t - 1];
+		long[] entries = new long[this.size * 2];
+		int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+		for (int slot = 0; slot < this.keys.length; slot++) {
+			long key = this.keys[slot];
+			if (key != EMPTY) {
+				int t1 = first(key);
+				int t2 = second(key);
+				entries[next[t1]++] = ((long) t2 << 32) | slot;
+				entries[next[t2]++] = ((long) t1 << 32) | slot; }
+		}
+		for (int t = 0; t < offsets.length - 1; t++)
+			Arrays.sort(entries, offsets[t], offsets[t + 1]);
+		this.offsets = offsets;
+		this.entries = entries;
+	}
+
+	/** Return the position of the first relation of a term in the per-term view. */
+
+	int start(int term)
+	{
+		if (this.offsets == null)
+			index();
+		return term + 1 < this.offsets.length ? this.offsets[term] : 0;
+	}
+
+	/** Return the position after the last relation of a term in the per-term view. */
+
+	int end(int term)
+	{
+		if (this.offsets == null)
+			index();
+		return term + 1 < this.offsets.length ? this.offsets[term + 1] : 0;
+	}
+
+	/** Return the other term of the relation at a position of the per-term view. */
+
+	int target(int i)
+	{
+		return (int) (this.entries[i] >>> 32);
+	}
+
+	int count(int i)
+	{
+		return this.counts[(int) this.entries[i]];
+	}
+
+	float mi(int i)
+	{
+		return this.mis[(int) this.entries[i]];
+	}
+
+	/**
+	 * Return the relations of a technology as CooccurrenceRelation instances
+	 * with the technology as the source. These are copies, changing them does
+	 * not change the table.
+	 *
+	 * @param technology The technology.
+	 * @return A list of relations, ordered on the identifier of the target.
+	 */
+
+	List<CooccurrenceRelation> relations(Technology technology)
+	{
+		int start = start(technology.id);
+		int end = end(technology.id);
+		List<CooccurrenceRelation> relations = new ArrayList<>(end - start);
+		for (int i = start; i < end; i++)
+			relations.add(new CooccurrenceRelation(
+					count(i), mi(i), technology, this.technologies.get(target(i))));
+		return relations;
+	}
+
+}
@@ -1,72 +1,154 @@
 package edu.brandeis.tgist.taxonomy;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.StringJoiner;
 
+/**
+ * Sliding window over the term vectors of a document.
+ *
+ * The window holds at most a fixed number of vectors and, optionally, only
+ * vectors that are no more than a number of sentences (as given by doc_loc)
+ * before the last one. It is emptied when a vector of another document comes
+ * in, so pairs never cross documents.
+ *
+ * Each update creates pairs of the new vector with the vectors before it. If
+ * a term occurs more than once in the window only its last occurrence makes a
+ * pair, and the new vector does not pair with its own term, so every pair of
+ * terms is created at most once per update.
+ *
+ * The window is a ring buffer. A MutableFeatureVector is likely to be reset by
+ * the caller, so it is copied into a vector owned by the window, and those are
+ * reused when they slide out. A streaming caller does not allocate anything
+ * per vector.
+ *
+ *		window.update(vector);
+ *		for (int i = 0; i < window.pairCount(); i++)
+ *			count(window.pairVector(i).termId, window.last().termId);
+ */
+
 public class CooccurrenceWindow {
 
-	List<FeatureVector> vectors;
+	FeatureVector[] vectors;
+	MutableFeatureVector[] copies;
+	int[] sentences;
+	int start;
+	int size;
+
+	/** Maximum distance in sentences, or -1 if there is no limit. */
+	int maxSentences;
+
+	/** Positions in the ring of the vectors that pair with the last vector. */
+	int[] pairs;
+	int pairCount;
 
 	CooccurrenceWindow() {
-		vectors = new ArrayList<>();
+		this(2, -1);
+	}
+
+	/**
+	 * Create a window.
+	 *
+	 * @param size The maximum number of vectors in the window, at least 2.
+	 * @param maxSentences The maximum distance in sentences between the first
+	 *     and last vector, or -1 for no limit.
+	 */
+	CooccurrenceWindow(int size, int maxSentences) {
+		size = Math.max(2, size);
+		this.vectors = new FeatureVector[size];
+		this.copies = new MutableFeatureVector[size];
+		this.sentences = new int[size];
+		this.pairs = new int[size];
+		this.maxSentences = maxSentences;
 	}
 
 	@Override
 	public String toString() {
 		StringJoiner joiner = new StringJoiner(", ");
-		for (FeatureVector vector : this.vectors)
-			joiner.add(vector.term);
+		for (int i = 0; i < this.size; i++)
+			joiner.add(get(i).getTerm());
 		return "<< " + joiner + " >>";
 	}
 
+	/** Return the number of vectors in the window. */
+	public int size() {
+		return this.size;
+	}
+
+	/** Return the i-th vector of the window, counting from the oldest. */
+	public FeatureVector get(int i) {
+		return this.vectors[(this.start + i) % this.vectors.length];
+	}
+
+	/** Return the vector added last. */
+	public FeatureVector last() {
+		return get(this.size - 1);
+	}
+
 	/**
-	 * Add a vector the the right end of the window and determine whether the
-	 * left side of the window needs to slide along.
+	 * Add a vector to the right end of the window, drop vectors on the left that
+	 * now fall outside of the window and find the pairs of the new vector.
 	 *
 	 * @param vector The FeatureVector to add.
 	 */
 	public void update(FeatureVector vector) {
-		this.vectors.add(vector);
-		adjustLeft(vector);
+		int sentence = this.maxSentences < 0 ? 0 : sentence(vector);
+		if (this.size > 0 && ! last().getFileName().equals(vector.getFileName()))
+			this.size = 0;
+		if (this.maxSentences >= 0)
+			while (this.size > 0 && sentence - this.sentences[this.start] > this.maxSentences)
+				removeFirst();
+		if (this.size == this.vectors.length)
+			removeFirst();
+		int slot = (this.start + this.size) % this.vectors.length;
+		if (vector instanceof MutableFeatureVector) {
+			if (this.copies[slot] == null)
+				this.copies[slot] = new MutableFeatureVector();
+			this.copies[slot].copyFrom((MutableFeatureVector) vector);
+			vector = this.copies[slot]; }
+		this.vectors[slot] = vector;
+		this.sentences[slot] = sentence;
+		this.size++;
+		findPairs();
 	}
 
-	/**
-	 * Given the vector just added, determine what elements on the left now fall
-	 * outside of the window. This now simply uses a sliding window of two terms
-	 * and what the last vector is does not matter, but in time we will look at
-	 * the sentence offsets of the vectors.
-	 *
-	 * @param vector The FeatureVector just added.
-	 */
-	private void adjustLeft(FeatureVector vector) {
-		if (this.vectors.size() > 2) {
-			this.vectors.remove(0);
-		}
+	private void removeFirst() {
+		this.vectors[this.start] = null;
+		this.start = (this.start + 1) % this.vectors.length;
+		this.size--;
+	}
+
+	private static int sentence(FeatureVector vector) {
+		String loc = vector.getFeature(FeatureVector.DOC_LOC);
+		return loc == null ? 0 : Integer.parseInt(loc);
 	}
 
 	/**
-	 * Get all cooccurrence pairs of the vectors in the window. Given a list of
-	 * vectors [V1, V2, ... Vn-1, Vn], this is defined as the list of pairs
-	 * [[V1,Vn], [V2,Vn], .... [Vn-1,Vn]].
-	 *
-	 * @return ArrayList of String pairs.
+	 * Find the vectors that pair with the last one: all older vectors except
+	 * those with the term of the last vector and those whose term occurs again
+	 * later in the window.
 	 */
-	public ArrayList<String[]> cooccurrencePairs() {
-		ArrayList<String []> pairs = new ArrayList();
-		FeatureVector last = this.vectors.get(this.vectors.size() - 1);
-		for (int i = 0; i < this.vectors.size() - 1; i++) {
-			String[] pair = { this.vectors.get(i).term, last.term };
-			if (! pair[0].equals(pair[1]))
-				pairs.add(pair);
+	private void findPairs() {
+		this.pairCount = 0;
+		int last = last().termId;
+		for (int i = 0; i < this.size - 1; i++) {
+			int term = get(i).termId;
+			if (term == last)
+				continue;
+			boolean later = false;
+			for (int j = i + 1; j < this.size - 1 && ! later; j++)
+				later = get(j).termId == term;
+			if (! later)
+				this.pairs[this.pairCount++] = i;
 		}
-		return pairs;
 	}
 
-	public ArrayList<FeatureVector> firstTwoVectors() {
-		ArrayList pair = new ArrayList();
-		pair.add(this.vectors.get(0));
-		pair.add(this.vectors.get(1));
-		return pair;
+	/** Return the number of pairs created by the last update. */
+	public int pairCount() {
+		return this.pairCount;
 	}
+
+	/** Return the older vector of the i-th pair, the other one is last(). */
+	public FeatureVector pairVector(int i) {
+		return get(this.pairs[i]);
+	}
+
 }
@@ -0,0 +1,367 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Staged pipeline for importing feature vectors from a gzipped features file.
+ *
+ * There are three stages. A reader thread inflates the input, cuts it into
+ * batches of lines and keeps track of the file name headers. A pool of workers
+ * decodes and parses the batches and filters out vectors for terms that are
+ * not in the taxonomy. The calling thread then writes the results of the batches
+ * in the order in which they were read, so the output is exactly the same as
+ * when all of this is done on one thread.
+ *
+ * Lines are handed to the workers as raw bytes, which means that the reader
+ * thread does little more than inflating and looking for line ends. Most lines
+ * in a features file are for terms that did not make it into the taxonomy, so
+ * the workers first look up the term bytes in a TermFilter and only decode the
+ * lines that pass.
+ *
+ * Vectors can be written as text to a FeatureWriter or in binary form to a
+ * FeatureStoreWriter. In the latter case the workers hand over parsed vectors
+ * and the encoding is done by the writing thread, since that is where the
+ * dictionaries of the feature store are built.
+ */
+
+class FeatureImporter {
+
+	/** Size of the buffer used when reading from the inflater. */
+	static final int READ_BUFFER = 1 << 16;
+
+	/** Marker put on the queue by the reader thread when it is done. */
+	static final Future<Batch> END = CompletableFuture.completedFuture(null);
+
+	Taxonomy taxonomy;
+	Set<String> terms;
+	TermFilter filter;
+	int threads;
+	int batchSize;
+	long linesRead;
+
+
+	/**
+	 * Create an importer for a taxonomy.
+	 *
+	 * @param taxonomy The taxonomy whose terms are used as a filter.
+	 * @param threads Number of worker threads that parse and filter lines.
+	 * @param batchSize Number of lines handed to a worker in one go.
+	 */
+
+	FeatureImporter(Taxonomy taxonomy, int threads, int batchSize)
+	{
+		this(taxonomy, taxonomy.terms.keySet(), threads, batchSize);
+	}
+
+	/**
+	 * Create an importer that only keeps the vectors for some of the terms of
+	 * a taxonomy.
+	 *
+	 * @param taxonomy The taxonomy.
+	 * @param terms The terms whose vectors are kept.
+	 * @param threads Number of worker threads that parse and filter lines.
+	 * @param batchSize Number of lines handed to a worker in one go.
+	 */
+
+	FeatureImporter(Taxonomy taxonomy, Set<String> terms, int threads, int batchSize)
+	{
+		this.taxonomy = taxonomy;
+		this.terms = terms;
+		this.filter = new TermFilter(terms);
+		this.threads = Math.max(1, threads);
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Read all vectors from featuresFile and write those for terms in the
+	 * taxonomy to the feature writer.
+	 *
+	 * @param featuresFile A gzipped file with feature vectors.
+	 * @param fWriter The writer that the vectors are written to.
+	 * @return The number of vectors written.
+	 * @throws IOException
+	 */
+
+	int run(String featuresFile, FeatureWriter fWriter)
+			throws IOException
+	{
+		return run(featuresFile, fWriter, null);
+	}
+
+	/**
+	 * Read all vectors from featuresFile and write those for terms in the
+	 * taxonomy to a feature store.
+	 *
+	 * @param featuresFile A gzipped file with feature vectors.
+	 * @param store The feature store that the vectors are written to.
+	 * @return The number of vectors written.
+	 * @throws IOException
+	 */
+
+	int run(String featuresFile, FeatureStoreWriter store)
+			throws IOException
+	{
+		return run(featuresFile, null, store);
+	}
+
+	private int run(String featuresFile, FeatureWriter fWriter, FeatureStoreWriter store)
+			throws IOException
+	{
+		ExecutorService workers = Executors.newFixedThreadPool(
+				this.threads, daemonThreads("import-worker"));
+		ExecutorService reader = Executors.newSingleThreadExecutor(
+				daemonThreads("import-reader"));
+		// bounded so that the reader cannot run too far ahead of the writer
+		BlockingQueue<Future<Batch>> queue = new ArrayBlockingQueue<>(this.threads * 4);
+		int vectorsAdded = 0;
+		try {
+			boolean keepVectors = store != null;
+			Future<?> readerDone = reader.submit(() -> {
+				read(featuresFile, keepVectors, workers, queue);
+				return null; });
+			while (true) {
+				Future<Batch> future = queue.take();
+				if (future == END) break;
+				Batch batch = future.get();
+				if (store != null)
+					for (FeatureVector vector : batch.vectors)
+						store.write(vector);
+				else
+					fWriter.write(batch.output);
+				vectorsAdded += batch.kept;
+			}
+			readerDone.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException)
+				throw (IOException) ex.getCause();
+			throw new IOException(ex.getCause());
+		} finally {
+			// if writing stopped early the reader may be waiting on a full queue,
+			// it is interrupted and the batches it queued are not parsed anymore
+			reader.shutdownNow();
+			List<Future<Batch>> pending = new ArrayList<>();
+			queue.drainTo(pending);
+			for (Future<Batch> future : pending)
+				future.cancel(true);
+			workers.shutdownNow();
+		}
+		return vectorsAdded;
+	}
+
+	/**
+	 * Return a factory for daemon threads, so that an import that failed cannot
+	 * keep the program from exiting.
+	 */
+
+	private static ThreadFactory daemonThreads(String name)
+	{
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread; };
+	}
+
+	/**
+	 * Inflate the input and cut it into batches. Each batch is handed to the
+	 * workers and the resulting future is put on the queue. The END marker is
+	 * always put on the queue, also when reading fails, unless the reader was
+	 * interrupted because nobody takes from the queue anymore.
+	 */
+
+	private void read(
+			String featuresFile, boolean keepVectors, ExecutorService workers,
+			BlockingQueue<Future<Batch>> queue)
+			throws IOException, InterruptedException
+	{
+		boolean interrupted = false;
+		try (InputStream input = new GZIPInputStream(
+				new FileInputStream(featuresFile), READ_BUFFER)) {
+			byte[] buffer = new byte[READ_BUFFER];
+			// the part of a line that continues in the next read
+			byte[] carry = new byte[1024];
+			int carryLength = 0;
+			String filename = null;
+			Batch batch = new Batch(filename, this.batchSize, keepVectors);
+			int n;
+			while ((n = input.read(buffer)) != -1) {
+				int start = 0;
+				for (int i = 0; i < n; i++) {
+					if (buffer[i] != '\n')
+						continue;
+					if (carryLength > 0) {
+						carry = append(carry, carryLength, buffer, start, i - start);
+						filename = addLine(batch, carry, 0, carryLength + i - start, filename);
+						carryLength = 0;
+					} else {
+						filename = addLine(batch, buffer, start, i - start, filename);
+					}
+					start = i + 1;
+					if (batch.lines == this.batchSize) {
+						queue.put(workers.submit(batch::filter));
+						batch = new Batch(filename, this.batchSize, keepVectors); }
+				}
+				carry = append(carry, carryLength, buffer, start, n - start);
+				carryLength += n - start;
+			}
+			if (carryLength > 0)
+				addLine(batch, carry, 0, carryLength, filename);
+			if (batch.lines > 0)
+				queue.put(workers.submit(batch::filter));
+		} catch (InterruptedException ex) {
+			interrupted = true;
+			throw ex;
+		} finally {
+			if (interrupted)
+				queue.offer(END);
+			else
+				queue.put(END);
+		}
+	}
+
+	/**
+	 * Add a line to the batch and return the file name that is current after
+	 * the line. Lines that do not start with a tab are file name headers.
+	 */
+
+	private String addLine(Batch batch, byte[] bytes, int offset, int length, String filename)
+	{
+		this.linesRead++;
+		if ((this.linesRead % 100_000) == 0) System.out.println(this.linesRead);
+		// BufferedReader.readLine() also strips the carriage return
+		if (length > 0 && bytes[offset + length - 1] == '\r')
+			length--;
+		batch.add(bytes, offset, length);
+		if (length > 0 && bytes[offset] != '\t') {
+			int end = offset;
+			while (end < offset + length && bytes[end] != '\t') end++;
+			filename = new String(bytes, offset, end - offset, StandardCharsets.UTF_8); }
+		return filename;
+	}
+
+	private static byte[] append(byte[] target, int targetLength, byte[] source, int offset, int length)
+	{
+		if (targetLength + length > target.length)
+			target = Arrays.copyOf(target, Math.max(target.length * 2, targetLength + length));
+		System.arraycopy(source, offset, target, targetLength, length);
+		return target;
+	}
+
+
+	/**
+	 * A batch of lines, stored as UTF-8 bytes, plus the file name that was current
+	 * when the first line of the batch was read.
+	 */
+
+	class Batch {
+
+		String filename;
+		byte[] bytes;
+		int size;
+		int[] ends;
+		int lines;
+		String output;
+		List<FeatureVector> vectors;
+		int kept;
+
+		Batch(String filename, int capacity, boolean keepVectors) {
+			this.filename = filename;
+			if (keepVectors)
+				this.vectors = new ArrayList<>();
+			this.bytes = new byte[capacity * 256];
+			this.ends = new int[capacity];
+		}
+
+		void add(byte[] source, int offset, int length) {
+			if (this.size + length > this.bytes.length)
+				this.bytes = Arrays.copyOf(
+						this.bytes, Math.max(this.bytes.length * 2, this.size + length));
+			System.arraycopy(source, offset, this.bytes, this.size, length);
+			this.size += length;
+			this.ends[this.lines++] = this.size;
+		}
+
+		/**
+		 * Parse all lines and keep the vectors of technologies. This does the
+		 * same as the loop that used to be in importFeatures(), except that vector
+		 * lines are only decoded if their term passes the filter.
+		 */
+		Batch filter() {
+			StringBuilder sb = new StringBuilder();
+			String filename = this.filename;
+			int start = 0;
+			for (int i = 0; i < this.lines; i++) {
+				int end = this.ends[i];
+				int lineStart = start;
+				start = end;
+				if (end > lineStart && this.bytes[lineStart] != '\t') {
+					filename = firstField(lineStart, end);
+				} else if (passes(lineStart, end)) {
+					String line = new String(
+							this.bytes, lineStart, end - lineStart, StandardCharsets.UTF_8);
+					String[] fields = line.split("\t");
+					if (fields.length < 4) continue;
+					String term = fields[3];
+					if (terms.contains(term)) {
+						// prefix the full filename because the vector initialization
+						// code expects that
+						FeatureVector vector = new FeatureVector(filename + line);
+						if (this.vectors != null)
+							this.vectors.add(vector);
+						else
+							sb.append(vector.asTabSeparatedFields());
+						this.kept++;
+					}
+				}
+			}
+			this.output = sb.toString();
+			// the lines are not needed anymore
+			this.bytes = null;
+			return this;
+		}
+
+		/**
+		 * Find the term, which is the fourth field, in the line and look it up
+		 * in the filter.
+		 */
+		private boolean passes(int start, int end) {
+			int field = 0;
+			int fieldStart = start;
+			for (int i = start; i < end; i++) {
+				if (this.bytes[i] == '\t') {
+					if (field == 3)
+						return filter.mightContain(this.bytes, fieldStart, i - fieldStart);
+					field++;
+					fieldStart = i + 1; }
+			}
+			return field == 3 && filter.mightContain(this.bytes, fieldStart, end - fieldStart);
+		}
+
+		private String firstField(int start, int end) {
+			int fieldEnd = start;
+			while (fieldEnd < end && this.bytes[fieldEnd] != '\t') fieldEnd++;
+			return new String(this.bytes, start, fieldEnd - start, StandardCharsets.UTF_8);
+		}
+	}
+
+}
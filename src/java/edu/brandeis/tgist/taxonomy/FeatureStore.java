@@ -0,0 +1,170 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary format for the feature vectors of a taxonomy, an alternative to the
+ * tab-separated features.txt file that is several times smaller and that can be
+ * read without splitting strings.
+ *
+ * The file starts with a header, followed by the vectors and ending in a set of
+ * dictionaries:
+ *
+ *    magic version dictionaryOffset vectorCount
+ *    vector*
+ *    names values files terms
+ *
+ * The magic number and version are ints, the offset and count are longs. Each
+ * vector is written as a varint with the length of the rest of the record,
+ * followed by these varints:
+ *
+ *    file id year term featureCount (name value)*
+ *
+ * File, term, name and value are codes into the dictionaries. The names
+ * dictionary starts off with FeatureVector.FEAT_LIST so that for all the usual
+ * features the code is the same as the position in the feature list, other
+ * names are added at the end. The lowest bit of a name code is set if the
+ * feature has a value (it always does, unless the feature had no equal sign in
+ * it). The lowest bit of a value code is set if the value is a small integer,
+ * which is then stored in the rest of the code, otherwise the rest is a code in
+ * the values dictionary. The identifier is encoded the same way, except that
+ * identifiers that are not integers are stored inline as a length and UTF-8
+ * bytes. The year is zigzag-encoded.
+ *
+ * A dictionary is a varint with the number of entries followed by the entries,
+ * each a varint length and UTF-8 bytes.
+ *
+ * The dictionaries are written last because they are built while the vectors
+ * are written, FeatureStoreWriter patches the offset in the header when the
+ * store is committed.
+ */
+
+public class FeatureStore {
+
+	static final int MAGIC = 0x54474653;  // "TGFS"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 24;
+
+	/** Records cannot be longer than this, which keeps the mapping code simple. */
+	static final int MAX_RECORD = 1 << 20;
+
+	/** Integers up to this size are stored inline in value and identifier codes. */
+	static final int MAX_INLINE = 1 << 29;
+
+	static final int NAMES = 0;
+	static final int VALUES = 1;
+	static final int FILES = 2;
+	static final int TERMS = 3;
+
+	/** Cached strings for small integer values, to avoid creating them per vector. */
+	static final String[] SMALL_INTS = new String[4096];
+
+	static {
+		for (int i = 0; i < SMALL_INTS.length; i++)
+			SMALL_INTS[i] = Integer.toString(i);
+	}
+
+	/**
+	 * Convert a tab-separated features file into a feature store.
+	 *
+	 * @param txtFile The file with tab-separated feature vectors.
+	 * @param binFile The feature store to create.
+	 * @return The number of vectors converted.
+	 * @throws IOException
+	 */
+
+	public static long fromText(String txtFile, String binFile)
+			throws IOException
+	{
+		long count = 0;
+		try (FeatureStoreWriter writer = new FeatureStoreWriter(new File(binFile));
+				RecordReader reader = new RecordReader(new File(txtFile), false)) {
+			LazyFeatureVector vector = new LazyFeatureVector();
+			while (reader.next()) {
+				vector.setLine(reader.getLine());
+				writer.write(vector);
+				count++; }
+			writer.commit();
+		}
+		return count;
+	}
+
+	/**
+	 * Convert a feature store into a tab-separated features file. The result
+	 * is identical to the file that the text import would have written.
+	 *
+	 * @param binFile The feature store.
+	 * @param txtFile The tab-separated file to create.
+	 * @return The number of vectors converted.
+	 * @throws IOException
+	 */
+
+	public static long toText(String binFile, String txtFile)
+			throws IOException
+	{
+		long count = 0;
+		try (FeatureStoreReader reader = new FeatureStoreReader(new File(binFile));
+				FeatureWriter writer = new FeatureWriter(new File(txtFile))) {
+			StringBuilder sb = new StringBuilder();
+			while (reader.next()) {
+				sb.setLength(0);
+				reader.appendTabSeparatedFields(sb);
+				writer.write(sb.toString());
+				count++; }
+		}
+		return count;
+	}
+
+	/**
+	 * Returns true if the integer is written in its canonical form and is small
+	 * enough to be inlined.
+	 */
+
+	static boolean isInlineInt(String s)
+	{
+		int length = s.length();
+		if (length == 0 || length > 9) return false;
+		if (length > 1 && s.charAt(0) == '0') return false;
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') return false; }
+		return Integer.parseInt(s) < MAX_INLINE;
+	}
+
+	static String intAsString(int i)
+	{
+		return i < SMALL_INTS.length ? SMALL_INTS[i] : Integer.toString(i);
+	}
+
+	static int zigzag(int i)
+	{
+		return (i << 1) ^ (i >> 31);
+	}
+
+	static int unzigzag(int i)
+	{
+		return (i >>> 1) ^ -(i & 1);
+	}
+
+	/**
+	 * Read a varint from a buffer at an absolute position. The position after
+	 * the varint is left in pos[0].
+	 */
+
+	static int readVarint(ByteBuffer buffer, int[] pos)
+	{
+		int p = pos[0];
+		int result = 0;
+		int shift = 0;
+		while (true) {
+			byte b = buffer.get(p++);
+			result |= (b & 0x7f) << shift;
+			if (b >= 0) break;
+			shift += 7; }
+		pos[0] = p;
+		return result;
+	}
+
+}
@@ -0,0 +1,369 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cursor over the vectors in a feature store. See FeatureStore for the format.
+ *
+ * The vectors are memory-mapped and decoded into a set of codes that are reused
+ * for each vector, the dictionaries are read into memory when the store is
+ * opened. Moving to the next vector does not create any objects, the accessors
+ * return strings from the dictionaries.
+ *
+ * Files larger than what fits in one mapping are mapped as a series of
+ * segments that overlap by the maximum record size, so that a record that
+ * starts in a segment can always be read from that segment.
+ *
+ *		try (FeatureStoreReader reader = new FeatureStoreReader(file)) {
+ *			while (reader.next()) {
+ *				String term = reader.term();
+ *				String loc = reader.getFeature(FeatureVector.SENT_LOC);
+ *				...
+ *			}
+ *		}
+ */
+
+public class FeatureStoreReader implements Closeable {
+
+	static final long SEGMENT = 1L << 30;
+
+	RandomAccessFile file;
+	FileChannel channel;
+	MappedByteBuffer[] segments;
+	long end;
+	long vectorCount;
+	long position;
+	String[][] dictionaries;
+	int[] pos = new int[1];
+
+	// The codes of the current vector
+	int fileCode;
+	int idCode;
+	ByteBuffer idBuffer;
+	int idOffset;
+	int year;
+	int termCode;
+
+	/** Maps term codes to identifiers in a taxonomy, see resolveTerms(). */
+	int[] termIds;
+	int featureCount;
+	int[] nameCodes = new int[32];
+	int[] valueCodes = new int[32];
+
+	/** For each feature in FeatureVector.FEAT_LIST its position in the current vector. */
+	int[] featurePositions = new int[FeatureVector.FEAT_LIST.length];
+
+
+	/**
+	 * Open a feature store.
+	 *
+	 * @param file The feature store.
+	 * @throws IOException
+	 */
+
+	FeatureStoreReader(File file) throws IOException
+	{
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		if (this.file.readInt() != FeatureStore.MAGIC)
+			throw new IOException("not a feature store: " + file);
+		int version = this.file.readInt();
+		if (version != FeatureStore.VERSION)
+			throw new IOException("unsupported feature store version: " + version);
+		this.end = this.file.readLong();
+		this.vectorCount = this.file.readLong();
+		int n = (int) ((this.end + SEGMENT - 1) / SEGMENT);
+		this.segments = new MappedByteBuffer[n];
+		for (int i = 0; i < n; i++) {
+			long start = i * SEGMENT;
+			long size = Math.min(SEGMENT + FeatureStore.MAX_RECORD, this.end - start);
+			this.segments[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, start, size); }
+		readDictionaries();
+		this.position = FeatureStore.HEADER_SIZE;
+	}
+
+	private void readDictionaries() throws IOException
+	{
+		this.channel.position(this.end);
+		InputStream in = new BufferedInputStream(Channels.newInputStream(this.channel), 1 << 16);
+		this.dictionaries = new String[4][];
+		byte[] bytes = new byte[256];
+		for (int d = 0; d < this.dictionaries.length; d++) {
+			int size = readVarint(in);
+			String[] strings = new String[size];
+			for (int i = 0; i < size; i++) {
+				int length = readVarint(in);
+				if (length > bytes.length) bytes = new byte[Math.max(length, bytes.length * 2)];
+				readFully(in, bytes, length);
+				strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8); }
+			this.dictionaries[d] = strings; }
+	}
+
+	private static int readVarint(InputStream in) throws IOException
+	{
+		int result = 0;
+		int shift = 0;
+		while (true) {
+			int b = in.read();
+			if (b < 0) throw new EOFException();
+			result |= (b & 0x7f) << shift;
+			if (b < 0x80) break;
+			shift += 7; }
+		return result;
+	}
+
+	private static void readFully(InputStream in, byte[] bytes, int length) throws IOException
+	{
+		int offset = 0;
+		while (offset < length) {
+			int n = in.read(bytes, offset, length - offset);
+			if (n < 0) throw new EOFException();
+			offset += n; }
+	}
+
+	/** Go back to the first vector. */
+
+	public void rewind()
+	{
+		this.position = FeatureStore.HEADER_SIZE;
+	}
+
+	/**
+	 * Move to the next vector.
+	 *
+	 * @return False if there are no more vectors, true otherwise.
+	 */
+
+	public boolean next()
+	{
+		if (this.position >= this.end)
+			return false;
+		int segment = (int) (this.position / SEGMENT);
+		ByteBuffer buffer = this.segments[segment];
+		int[] p = this.pos;
+		p[0] = (int) (this.position - segment * SEGMENT);
+		int length = FeatureStore.readVarint(buffer, p);
+		int recordEnd = p[0] + length;
+		this.fileCode = FeatureStore.readVarint(buffer, p);
+		this.idCode = FeatureStore.readVarint(buffer, p);
+		if ((this.idCode & 1) == 0) {
+			this.idBuffer = buffer;
+			this.idOffset = p[0];
+			p[0] += this.idCode >>> 1; }
+		this.year = FeatureStore.unzigzag(FeatureStore.readVarint(buffer, p));
+		this.termCode = FeatureStore.readVarint(buffer, p);
+		this.featureCount = FeatureStore.readVarint(buffer, p);
+		if (this.featureCount > this.nameCodes.length) {
+			this.nameCodes = new int[this.featureCount * 2];
+			this.valueCodes = new int[this.featureCount * 2]; }
+		for (int i = 0; i < this.featurePositions.length; i++)
+			this.featurePositions[i] = -1;
+		for (int i = 0; i < this.featureCount; i++) {
+			int name = FeatureStore.readVarint(buffer, p);
+			this.nameCodes[i] = name;
+			this.valueCodes[i] = (name & 1) == 1 ? FeatureStore.readVarint(buffer, p) : -1;
+			if ((name >>> 1) < this.featurePositions.length)
+				this.featurePositions[name >>> 1] = i;
+		}
+		this.position = segment * SEGMENT + recordEnd;
+		return true;
+	}
+
+	public long size()
+	{
+		return this.vectorCount;
+	}
+
+	public String fileName()
+	{
+		return this.dictionaries[FeatureStore.FILES][this.fileCode];
+	}
+
+	public String id()
+	{
+		if ((this.idCode & 1) == 1)
+			return FeatureStore.intAsString(this.idCode >>> 1);
+		byte[] bytes = new byte[this.idCode >>> 1];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = this.idBuffer.get(this.idOffset + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public int year()
+	{
+		return this.year;
+	}
+
+	/**
+	 * Return the taxonomy identifier of the term of the current vector, or -1
+	 * if the term is not in the taxonomy. Only available after resolveTerms().
+	 */
+
+	public int termId()
+	{
+		return this.termIds[this.termCode];
+	}
+
+	public String term()
+	{
+		return this.dictionaries[FeatureStore.TERMS][this.termCode];
+	}
+
+	public int featureCount()
+	{
+		return this.featureCount;
+	}
+
+	public String featureName(int i)
+	{
+		return this.dictionaries[FeatureStore.NAMES][this.nameCodes[i] >>> 1];
+	}
+
+	/**
+	 * Return the value of the i-th feature of the current vector, or null if
+	 * the feature has no value.
+	 */
+
+	public String featureValue(int i)
+	{
+		int code = this.valueCodes[i];
+		if (code < 0)
+			return null;
+		if ((code & 1) == 1)
+			return FeatureStore.intAsString(code >>> 1);
+		return this.dictionaries[FeatureStore.VALUES][code >>> 1];
+	}
+
+	/**
+	 * Return the value of a feature of the current vector, or null if the
+	 * vector does not have the feature.
+	 */
+
+	public String getFeature(String feat)
+	{
+		Integer idx = FeatureVector.FEAT_IDX.get(feat);
+		if (idx != null) {
+			int i = this.featurePositions[idx];
+			return i < 0 ? null : featureValue(i); }
+		for (int i = 0; i < this.featureCount; i++) {
+			if (featureName(i).equals(feat))
+				return featureValue(i); }
+		return null;
+	}
+
+	/**
+	 * Map all terms in the store to their identifiers in the taxonomy. This is
+	 * done once, after that termId() is an array lookup.
+	 *
+	 * @param taxonomy
+	 */
+
+	public void resolveTerms(Taxonomy taxonomy)
+	{
+		String[] terms = this.dictionaries[FeatureStore.TERMS];
+		this.termIds = new int[terms.length];
+		for (int i = 0; i < terms.length; i++)
+			this.termIds[i] = taxonomy.getTermId(terms[i]);
+	}
+
+	/**
+	 * Create a FeatureVector for the current vector. The vector's term
+	 * identifier is set if resolveTerms() was called.
+	 *
+	 * With addIndex the vector is decoded completely and gets a feature index,
+	 * just like a vector loaded from features.txt. Without it the vector is a
+	 * LazyFeatureVector that holds a copy of the codes of the record.
+	 *
+	 * @param addIndex Whether to create a fully decoded vector with an index.
+	 * @return A new FeatureVector.
+	 */
+
+	public FeatureVector vector(boolean addIndex)
+	{
+		if (! addIndex)
+			return new LazyFeatureVector(this);
+		String[] names = new String[this.featureCount];
+		String[] values = new String[this.featureCount];
+		for (int i = 0; i < this.featureCount; i++) {
+			names[i] = featureName(i);
+			values[i] = featureValue(i); }
+		FeatureVector vector = new FeatureVector(
+				fileName(), id(), this.year, term(), names, values, addIndex);
+		if (this.termIds != null)
+			vector.termId = termId();
+		return vector;
+	}
+
+	/**
+	 * Copy the codes of the current vector into a lazy vector.
+	 */
+
+	void copyTo(LazyFeatureVector vector)
+	{
+		vector.dictionaries = this.dictionaries;
+		vector.fileCode = this.fileCode;
+		vector.idCode = this.idCode;
+		if ((this.idCode & 1) == 0) {
+			int length = this.idCode >>> 1;
+			if (vector.idBytes.length < length)
+				vector.idBytes = new byte[length];
+			for (int i = 0; i < length; i++)
+				vector.idBytes[i] = this.idBuffer.get(this.idOffset + i); }
+		vector.year = this.year;
+		vector.termCode = this.termCode;
+		vector.termId = this.termIds == null ? -1 : termId();
+		vector.featureCount = this.featureCount;
+		if (vector.nameCodes.length < this.featureCount) {
+			vector.nameCodes = new int[this.nameCodes.length];
+			vector.valueCodes = new int[this.valueCodes.length]; }
+		System.arraycopy(this.nameCodes, 0, vector.nameCodes, 0, this.featureCount);
+		System.arraycopy(this.valueCodes, 0, vector.valueCodes, 0, this.featureCount);
+		System.arraycopy(
+				this.featurePositions, 0, vector.featurePositions, 0,
+				this.featurePositions.length);
+	}
+
+	/**
+	 * Append the current vector in the format used by features.txt.
+	 */
+
+	public void appendTabSeparatedFields(StringBuilder sb)
+	{
+		sb.append(fileName()).append('\t').append(id()).append('\t');
+		sb.append(this.year).append('\t').append(term()).append('\t');
+		for (int i = 0; i < this.featureCount; i++) {
+			if (i > 0) sb.append('\t');
+			sb.append(featureName(i));
+			String value = featureValue(i);
+			if (value != null) sb.append('=').append(value); }
+		sb.append('\n');
+	}
+
+	/**
+	 * Return one of the dictionaries, using the constants in FeatureStore.
+	 */
+
+	String[] dictionary(int which)
+	{
+		return this.dictionaries[which];
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.segments = null;
+		this.file.close();
+	}
+
+}
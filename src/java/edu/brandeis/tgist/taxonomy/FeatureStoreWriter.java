@@ -0,0 +1,193 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes feature vectors to a feature store. See FeatureStore for the format.
+ *
+ * Dictionaries are kept in memory while writing, vectors are streamed to disk.
+ * The store is written to a temporary file that only replaces the store when
+ * commit() is called, so a store that was being written when something failed
+ * is left as it was:
+ *
+ *		try (FeatureStoreWriter writer = new FeatureStoreWriter(file, true)) {
+ *			writer.write(vector);
+ *			...
+ *			writer.commit();
+ *		}
+ */
+
+public class FeatureStoreWriter implements Closeable {
+
+	File file;
+	File tmpFile;
+	OutputStream out;
+	long position;
+	long vectorCount;
+	ByteSink record;
+	ByteSink lengthPrefix;
+	StringDictionary[] dictionaries;
+
+
+	/**
+	 * Create a new feature store, overwriting the file if it exists.
+	 *
+	 * @param file The file to write to.
+	 * @throws IOException
+	 */
+
+	FeatureStoreWriter(File file) throws IOException
+	{
+		this(file, false);
+	}
+
+	/**
+	 * Create a new feature store or add to an existing one. When appending, the
+	 * dictionaries of the store are read and the vectors are copied to the
+	 * temporary file, new vectors are written after the old ones and the
+	 * dictionaries are written again on commit. Existing codes do not change.
+	 *
+	 * @param file The file to write to.
+	 * @param append Whether to add to the store if it exists.
+	 * @throws IOException
+	 */
+
+	FeatureStoreWriter(File file, boolean append) throws IOException
+	{
+		this.file = file;
+		this.tmpFile = new File(file.getPath() + ".tmp");
+		this.record = new ByteSink();
+		this.lengthPrefix = new ByteSink();
+		this.dictionaries = new StringDictionary[4];
+		for (int i = 0; i < this.dictionaries.length; i++)
+			this.dictionaries[i] = new StringDictionary();
+		if (append && file.isFile()) {
+			try (FeatureStoreReader reader = new FeatureStoreReader(file)) {
+				for (int i = 0; i < this.dictionaries.length; i++)
+					for (String s : reader.dictionary(i))
+						this.dictionaries[i].append(s);
+				this.position = reader.end;
+				this.vectorCount = reader.vectorCount; }
+			copyVectors(file, this.tmpFile, this.position);
+			this.out = new BufferedOutputStream(new FileOutputStream(this.tmpFile, true), 1 << 16);
+		} else {
+			this.out = new BufferedOutputStream(new FileOutputStream(this.tmpFile), 1 << 16);
+			for (String feat : FeatureVector.FEAT_LIST)
+				this.dictionaries[FeatureStore.NAMES].append(feat);
+			// the header is filled in when closing the writer
+			this.out.write(new byte[FeatureStore.HEADER_SIZE]);
+			this.position = FeatureStore.HEADER_SIZE;
+		}
+	}
+
+	/**
+	 * Copy the header and the vectors of a store, the header is written again
+	 * on commit.
+	 */
+
+	private static void copyVectors(File source, File target, long end) throws IOException
+	{
+		try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(target.toPath(),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (long position = 0; position < end; )
+				position += in.transferTo(position, end - position, out); }
+	}
+
+	/**
+	 * Append a vector to the store.
+	 *
+	 * @param vector The FeatureVector to write.
+	 * @throws IOException
+	 */
+
+	public void write(FeatureVector vector) throws IOException
+	{
+		ByteSink r = this.record;
+		r.reset();
+		r.writeVarint(this.dictionaries[FeatureStore.FILES].code(vector.getFileName()));
+		String vectorId = vector.getId();
+		if (FeatureStore.isInlineInt(vectorId)) {
+			r.writeVarint((Integer.parseInt(vectorId) << 1) | 1);
+		} else {
+			byte[] id = vectorId.getBytes(StandardCharsets.UTF_8);
+			r.writeVarint(id.length << 1);
+			r.write(id); }
+		r.writeVarint(FeatureStore.zigzag(vector.getYear()));
+		r.writeVarint(this.dictionaries[FeatureStore.TERMS].code(vector.getTerm()));
+		String[] features = vector.getFeatures();
+		r.writeVarint(features.length);
+		for (String feat : features) {
+			int eq = feat.indexOf('=');
+			if (eq < 0) {
+				r.writeVarint(this.dictionaries[FeatureStore.NAMES].code(feat) << 1);
+				continue; }
+			String value = feat.substring(eq + 1);
+			r.writeVarint(
+					(this.dictionaries[FeatureStore.NAMES].code(feat.substring(0, eq)) << 1) | 1);
+			if (FeatureStore.isInlineInt(value))
+				r.writeVarint((Integer.parseInt(value) << 1) | 1);
+			else
+				r.writeVarint(this.dictionaries[FeatureStore.VALUES].code(value) << 1);
+		}
+		if (r.size > FeatureStore.MAX_RECORD - 8)
+			throw new IOException("feature vector too long for the feature store: " + vector);
+		this.lengthPrefix.reset();
+		this.lengthPrefix.writeVarint(r.size);
+		this.lengthPrefix.writeTo(this.out);
+		r.writeTo(this.out);
+		this.position += this.lengthPrefix.size + r.size;
+		this.vectorCount++;
+	}
+
+	/**
+	 * Write the dictionaries and the header and move the new store in place.
+	 *
+	 * @throws IOException
+	 */
+
+	public void commit() throws IOException
+	{
+		for (StringDictionary dictionary : this.dictionaries)
+			dictionary.writeTo(this.out);
+		this.out.close();
+		this.out = null;
+		try (RandomAccessFile raf = new RandomAccessFile(this.tmpFile, "rw")) {
+			raf.writeInt(FeatureStore.MAGIC);
+			raf.writeInt(FeatureStore.VERSION);
+			raf.writeLong(this.position);
+			raf.writeLong(this.vectorCount); }
+		Files.move(this.tmpFile.toPath(), this.file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Close the writer. If the store was not committed the temporary file is
+	 * removed and the store stays as it was.
+	 *
+	 * @throws IOException
+	 */
+
+	@Override
+	public void close() throws IOException
+	{
+		if (this.out == null)
+			return;
+		this.out.close();
+		this.out = null;
+		this.tmpFile.delete();
+	}
+
+}
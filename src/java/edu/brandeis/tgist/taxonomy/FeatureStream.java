@@ -0,0 +1,121 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over the feature vectors of a taxonomy that reads them from disk one
+ * at a time, so that code that only needs to look at each vector once does not
+ * have to load all of them into Taxonomy.features.
+ *
+ * The vectors are taken from the feature store if the taxonomy has one and from
+ * the tab-separated features file otherwise. Term identifiers of the vectors are
+ * resolved against the taxonomy. Vectors are lazy, see LazyFeatureVector.
+ *
+ * A stream can be opened in reuse mode, in which case next() returns the same
+ * MutableFeatureVector each time, reset to the next vector. Nothing is allocated
+ * per vector then, but callers have to copy a vector if they want to keep it.
+ *
+ *		try (FeatureStream stream = taxonomy.openFeatures()) {
+ *			while (stream.hasNext()) {
+ *				FeatureVector vector = stream.next();
+ *				...
+ *			}
+ *		}
+ */
+
+public class FeatureStream implements Iterator<FeatureVector>, Closeable {
+
+	Taxonomy taxonomy;
+	FeatureStoreReader store;
+	BufferedReader reader;
+	MutableFeatureVector reusedVector;
+
+	// The reader is moved ahead in hasNext(), the vector is created in next()
+	boolean peeked;
+	boolean hasNext;
+	String nextLine;
+	long count;
+
+
+	/**
+	 * Open a stream on the features of a taxonomy. If there are no features the
+	 * stream is empty.
+	 *
+	 * @param taxonomy
+	 * @param reuse Whether to return the same MutableFeatureVector for each vector.
+	 * @throws IOException
+	 */
+
+	FeatureStream(Taxonomy taxonomy, boolean reuse) throws IOException
+	{
+		this.taxonomy = taxonomy;
+		if (reuse)
+			this.reusedVector = new MutableFeatureVector();
+		File sFile = new File(taxonomy.location, Taxonomy.FEATURE_STORE);
+		File vFile = new File(taxonomy.location, Taxonomy.FEATURES_FILE);
+		if (sFile.isFile()) {
+			this.store = new FeatureStoreReader(sFile);
+			this.store.resolveTerms(taxonomy);
+		} else if (vFile.isFile()) {
+			this.reader = Utils.getReader(vFile.getPath());
+		}
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		if (! this.peeked) {
+			this.peeked = true;
+			if (this.store != null) {
+				this.hasNext = this.store.next();
+			} else if (this.reader != null) {
+				try {
+					this.nextLine = this.reader.readLine();
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex); }
+				this.hasNext = this.nextLine != null;
+			}
+		}
+		return this.hasNext;
+	}
+
+	@Override
+	public FeatureVector next()
+	{
+		if (! hasNext())
+			throw new NoSuchElementException();
+		this.peeked = false;
+		LazyFeatureVector vector;
+		if (this.store != null) {
+			if (this.reusedVector != null)
+				this.reusedVector.reset(this.store);
+			vector = this.reusedVector != null
+					? this.reusedVector : new LazyFeatureVector(this.store);
+		} else {
+			if (this.reusedVector != null)
+				this.reusedVector.reset(this.nextLine);
+			vector = this.reusedVector != null
+					? this.reusedVector : new LazyFeatureVector(this.nextLine);
+			vector.termId = this.taxonomy.getTermId(vector.getTerm());
+		}
+		this.count++;
+		if ((this.count % 100_000) == 0) System.out.println(String.format("%d", this.count));
+		return vector;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (this.store != null)
+			this.store.close();
+		if (this.reader != null)
+			this.reader.close();
+	}
+
+}
@@ -5,6 +5,15 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * A feature vector for one occurrence of a term.
+ *
+ * Instances of this class are parsed completely when they are created. The
+ * subclasses LazyFeatureVector and MutableFeatureVector instead keep the raw
+ * line or feature store record and only decode fields that are asked for, code
+ * that should work with all of them uses the getters instead of the fields.
+ */
+
 public class FeatureVector {
 
 	// just to get all features
@@ -44,6 +53,13 @@ public class FeatureVector {
 	String fileName;
 	String id;
 	String term;
+
+	/**
+	 * The identifier of the term in the taxonomy, this is resolved by the code
+	 * that loads the vector and is -1 if the term is not a technology in the
+	 * taxonomy.
+	 */
+	int termId = -1;
 	String source;
 	int year;
 
@@ -123,6 +139,53 @@ public class FeatureVector {
 		//System.out.print(this.featuresIdx);
 	}
 
+	/**
+	 * Create a feature vector from fields that were already split, which is
+	 * what FeatureStoreReader does. Feature names and values are given as
+	 * parallel arrays, a value is null for a feature without a value. The
+	 * features list and the feature array are always filled in, the feature
+	 * index only if addIndex is true.
+	 *
+	 * @param fileName
+	 * @param id
+	 * @param year
+	 * @param term
+	 * @param names The feature names.
+	 * @param values The feature values.
+	 * @param addIndex A boolean indicating whether to add an index.
+	 */
+
+	FeatureVector(
+			String fileName, String id, int year, String term,
+			String[] names, String[] values, boolean addIndex)
+	{
+		this.fileName = fileName;
+		this.id = id;
+		this.year = year;
+		this.term = term;
+		this.featureList = new String[FEAT_LIST.length];
+		this.features = new String[names.length];
+		if (addIndex)
+			this.featuresIdx = new HashMap<>();
+		for (int i = 0; i < names.length; i++) {
+			Integer idx = FEAT_IDX.get(names[i]);
+			if (idx != null)
+				this.featureList[idx] = values[i];
+			this.features[i] = values[i] == null ? names[i] : names[i] + '=' + values[i];
+			if (addIndex && values[i] != null)
+				this.featuresIdx.put(names[i], values[i]);
+		}
+	}
+
+	/**
+	 * Create an empty feature vector, for use by subclasses that fill in the
+	 * fields themselves.
+	 */
+
+	FeatureVector()
+	{
+	}
+
 	static void setFeatureIndex() {
 		for (int i = 0; i < FEAT_LIST.length; i++)
 			FEAT_IDX.put(FEAT_LIST[i], i);
@@ -133,23 +196,79 @@ public class FeatureVector {
 	public String toString() {
 		return String.format(
 				"<FeatureVector %s term='%s' features=%d>",
-				this.fileName, this.term, this.features.length);
+				getFileName(), getTerm(), getFeatures().length);
+	}
+
+	public String getFileName() {
+		return this.fileName;
 	}
 
+	public String getId() {
+		return this.id;
+	}
+
+	public int getYear() {
+		return this.year;
+	}
+
+	public String getTerm() {
+		return this.term;
+	}
+
+	/**
+	 * Return the features as a list of strings like "tag_sig=NN_NN".
+	 *
+	 * @return An array of features.
+	 */
+	public String[] getFeatures() {
+		return this.features;
+	}
+
+	/**
+	 * Return the value of a feature. Uses the feature index if there is one and
+	 * the feature array otherwise, in which case only features from FEAT_LIST
+	 * can be found.
+	 *
+	 * @param feat The name of the feature.
+	 * @return The value of the feature or null if the vector does not have it.
+	 */
 	public String getFeature(String feat) {
-		return this.featuresIdx.get(feat);
+		if (this.featuresIdx != null)
+			return this.featuresIdx.get(feat);
+		Integer idx = FEAT_IDX.get(feat);
+		return idx == null || this.featureList == null ? null : this.featureList[idx];
 	}
 
 	String asTabSeparatedFields() {
 		return String.format("%s\t%s\t%d\t%s\t%s\n",
-				this.fileName, this.id, this.year, this.term,
-				String.join("\t", this.features));
+				getFileName(), getId(), getYear(), getTerm(),
+				String.join("\t", getFeatures()));
+	}
+
+	/**
+	 * Return the position in its sentence of the first token of the term, as
+	 * given by the sent_loc feature, which is like "4-6".
+	 */
+	public int getSentenceStart() {
+		String loc = getFeature(SENT_LOC);
+		return Integer.parseInt(loc, 0, loc.indexOf('-'), 10);
+	}
+
+	/**
+	 * Return the position in its sentence after the last token of the term, as
+	 * given by the sent_loc feature.
+	 */
+	public int getSentenceEnd() {
+		String loc = getFeature(SENT_LOC);
+		int start = loc.indexOf('-') + 1;
+		int end = loc.indexOf('-', start);
+		return Integer.parseInt(loc, start, end < 0 ? loc.length() : end, 10);
 	}
 
 	public boolean potentiallyRelatedTo(FeatureVector other) {
-		if (this.fileName.equals(other.fileName)
-				&& this.featuresIdx.get(DOC_LOC).equals(other.featuresIdx.get(DOC_LOC))
-				&& other.featuresIdx.get(PREV_V) != null)
+		if (this.getFileName().equals(other.getFileName())
+				&& this.getFeature(DOC_LOC).equals(other.getFeature(DOC_LOC))
+				&& other.getFeature(PREV_V) != null)
 			return true;
 		else
 			return false;
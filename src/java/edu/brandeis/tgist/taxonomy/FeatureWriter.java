@@ -1,6 +1,7 @@
 
 package edu.brandeis.tgist.taxonomy;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -12,20 +13,25 @@ import java.nio.charset.StandardCharsets;
  * Specialized class for writing features because we cannot just get the list of
  * all features and dump it to disk because that list is too large. 
  */
-public class FeatureWriter {
+public class FeatureWriter implements Closeable {
 
 	OutputStreamWriter writer;
 	
 	FeatureWriter(File file) throws FileNotFoundException {
+		this(file, false);
+	}
+
+	FeatureWriter(File file, boolean append) throws FileNotFoundException {
 		this.writer =
 				new OutputStreamWriter(
-					new FileOutputStream(file), StandardCharsets.UTF_8);
+					new FileOutputStream(file, append), StandardCharsets.UTF_8);
 	}
 	
 	public void write(String text) throws IOException {
 		this.writer.write(text);
 	}
 	
+	@Override
 	public void close() throws IOException {
 		this.writer.close();
 	}	
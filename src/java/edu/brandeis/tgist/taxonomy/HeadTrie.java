@@ -0,0 +1,301 @@
+package edu.brandeis.tgist.taxonomy;
+
+import static edu.brandeis.tgist.taxonomy.Utils.warning;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Trie over the tokens of terms read from right to left, used for the
+ * righthand head rule. The children of the root are the heads of terms, a
+ * term like "iron door" is a child of "door", and the hypernym of a term is
+ * the nearest term above it in the trie.
+ *
+ * Tokens are interned as they are found in the term names, without splitting
+ * the names, and a node is identified by its parent and the identifier of its
+ * token, so no suffix of a term is ever built as a string. Nodes are numbered
+ * from 0, which is the root, and everything about them is kept in int arrays.
+ * The children of all nodes are in one open-addressing table from parent and
+ * token to child.
+ *
+ * Terms with different heads never share a node below the root, so terms can
+ * be divided by their head into partitions that each get a trie of their own.
+ * The partitions are built in parallel and write to their own terms in one
+ * array of hypernyms, so the result does not depend on the number of threads.
+ *
+ * Tokens are separated by single spaces, like String.split(" ") does, so a term
+ * can have empty tokens. A term that ends in a space cannot be inserted.
+ */
+
+class HeadTrie {
+
+	static final int ROOT = 0;
+
+	static final long EMPTY = -1L;
+
+	/** The number of partitions per thread, heads can have very different sizes. */
+	static final int PARTITIONS_PER_THREAD = 8;
+
+	/* The nodes: the parent and the term on the node, or -1. */
+	int nodeCount;
+	int[] parents;
+	int[] terms;
+
+	/* Children, from key(parent, token) to child. */
+	long[] childKeys;
+	int[] children;
+	int childMask;
+
+	/* Interned tokens, the table has token + 1 in a slot and 0 if it is free. */
+	int tokenCount;
+	String[] tokenNames;
+	int[] tokenHashes;
+	int[] tokenTable;
+	int tokenMask;
+
+
+	HeadTrie(int expectedTerms)
+	{
+		int nodes = Math.max(16, expectedTerms * 2);
+		this.parents = new int[nodes];
+		this.terms = new int[nodes];
+		int capacity = tableCapacity(nodes);
+		this.childKeys = new long[capacity];
+		Arrays.fill(this.childKeys, EMPTY);
+		this.children = new int[capacity];
+		this.childMask = capacity - 1;
+		int tokenCapacity = tableCapacity(Math.max(16, expectedTerms / 2));
+		this.tokenNames = new String[tokenCapacity / 2];
+		this.tokenHashes = new int[tokenCapacity / 2];
+		this.tokenTable = new int[tokenCapacity];
+		this.tokenMask = tokenCapacity - 1;
+		newNode(-1);
+	}
+
+	/** The smallest power of two that keeps a table at most 2/3 full. */
+
+	private static int tableCapacity(int entries)
+	{
+		return Integer.highestOneBit(Math.max(2, entries * 3 / 2) - 1) << 1;
+	}
+
+	/**
+	 * Find the hypernyms of a list of terms with the righthand head rule. The
+	 * hypernym of a term is the longest other term that it ends in, after
+	 * removing whole tokens from the front. If two terms have the same name,
+	 * only the last one is in the hierarchy.
+	 *
+	 * @param names The names of the terms, indexed on term identifier.
+	 * @param threads The number of threads to use.
+	 * @return The identifier of the hypernym of each term, or -1.
+	 * @throws IOException
+	 */
+
+	static int[] hypernyms(String[] names, int threads) throws IOException
+	{
+		int size = names.length;
+		int partitions = threads <= 1 ? 1 : threads * PARTITIONS_PER_THREAD;
+		// sort the terms on partition, keeping the order of the terms in each
+		int[] partition = new int[size];
+		int[] starts = new int[partitions + 1];
+		for (int term = 0; term < size; term++) {
+			String name = names[term];
+			if (name.endsWith(" ")) {
+				warning("WARNING: term '" + name + "' could not be inserted");
+				partition[term] = -1;
+				continue; }
+			partition[term] = partition(name, partitions);
+			starts[partition[term] + 1]++; }
+		for (int p = 0; p < partitions; p++)
+			starts[p + 1] += starts[p];
+		int[] terms = new int[starts[partitions]];
+		int[] next = Arrays.copyOf(starts, partitions);
+		for (int term = 0; term < size; term++)
+			if (partition[term] >= 0)
+				terms[next[partition[term]]++] = term;
+		int[] hypernyms = new int[size];
+		Arrays.fill(hypernyms, -1);
+		if (partitions == 1) {
+			link(names, terms, 0, terms.length, hypernyms);
+			return hypernyms; }
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(() -> IntStream.range(0, partitions).parallel().forEach(
+					p -> link(names, terms, starts[p], starts[p + 1], hypernyms)))
+					.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ex);
+		} catch (ExecutionException ex) {
+			throw new IOException(ex.getCause());
+		} finally {
+			pool.shutdownNow(); }
+		return hypernyms;
+	}
+
+	/**
+	 * Return the partition of a term, from the hash of its head.
+	 */
+
+	static int partition(String name, int partitions)
+	{
+		int hash = 0;
+		for (int i = name.lastIndexOf(' ') + 1; i < name.length(); i++)
+			hash = 31 * hash + name.charAt(i);
+		return (int) (((hash * 0x9E3779B9L) & 0xffffffffL) * partitions >>> 32);
+	}
+
+	/**
+	 * Build the trie of the terms from start to end in terms and set their
+	 * hypernyms.
+	 */
+
+	private static void link(String[] names, int[] terms, int start, int end, int[] hypernyms)
+	{
+		HeadTrie trie = new HeadTrie(end - start);
+		int[] nodes = new int[end - start];
+		for (int i = start; i < end; i++) {
+			int node = trie.insert(names[terms[i]]);
+			trie.terms[node] = terms[i];
+			nodes[i - start] = node; }
+		for (int i = start; i < end; i++) {
+			int node = nodes[i - start];
+			if (trie.terms[node] == terms[i])
+				hypernyms[terms[i]] = trie.hypernym(node); }
+	}
+
+	/**
+	 * Insert the tokens of a term, last token first, and return its node.
+	 *
+	 * @param name The name of the term.
+	 * @return The node of the term, or -1 if the name ends in a space.
+	 */
+
+	int insert(String name)
+	{
+		int end = name.length();
+		if (end > 0 && name.charAt(end - 1) == ' ')
+			return -1;
+		int node = ROOT;
+		while (true) {
+			int start = name.lastIndexOf(' ', end - 1) + 1;
+			node = child(node, intern(name, start, end));
+			if (start == 0)
+				return node;
+			end = start - 1;
+		}
+	}
+
+	/**
+	 * Return the term of the nearest node above a node that has one, or -1.
+	 */
+
+	int hypernym(int node)
+	{
+		for (int n = this.parents[node]; n > ROOT; n = this.parents[n])
+			if (this.terms[n] >= 0)
+				return this.terms[n];
+		return -1;
+	}
+
+	/**
+	 * Return the child of a node for a token, adding it if there is none.
+	 */
+
+	private int child(int parent, int token)
+	{
+		long key = ((long) parent << 32) | token;
+		int slot = slot(key, this.childMask);
+		while (this.childKeys[slot] != EMPTY) {
+			if (this.childKeys[slot] == key)
+				return this.children[slot];
+			slot = (slot + 1) & this.childMask; }
+		int child = newNode(parent);
+		this.childKeys[slot] = key;
+		this.children[slot] = child;
+		if (this.nodeCount * 3 > this.childKeys.length * 2)
+			growChildren();
+		return child;
+	}
+
+	private static int slot(long key, int mask)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private int newNode(int parent)
+	{
+		if (this.nodeCount == this.parents.length) {
+			int length = this.parents.length * 2;
+			this.parents = Arrays.copyOf(this.parents, length);
+			this.terms = Arrays.copyOf(this.terms, length); }
+		int node = this.nodeCount++;
+		this.parents[node] = parent;
+		this.terms[node] = -1;
+		return node;
+	}
+
+	private void growChildren()
+	{
+		long[] oldKeys = this.childKeys;
+		int[] oldChildren = this.children;
+		this.childKeys = new long[oldKeys.length * 2];
+		Arrays.fill(this.childKeys, EMPTY);
+		this.children = new int[oldKeys.length * 2];
+		this.childMask = this.childKeys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY)
+				continue;
+			int slot = slot(oldKeys[i], this.childMask);
+			while (this.childKeys[slot] != EMPTY)
+				slot = (slot + 1) & this.childMask;
+			this.childKeys[slot] = oldKeys[i];
+			this.children[slot] = oldChildren[i]; }
+	}
+
+	/**
+	 * Return the identifier of the token from start to end in a name. The token
+	 * is only copied out of the name the first time it is seen.
+	 */
+
+	int intern(String name, int start, int end)
+	{
+		int length = end - start;
+		int hash = 0;
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + name.charAt(i);
+		int slot = (hash ^ (hash >>> 16)) & this.tokenMask;
+		for (int entry; (entry = this.tokenTable[slot]) != 0; slot = (slot + 1) & this.tokenMask) {
+			int token = entry - 1;
+			String tokenName = this.tokenNames[token];
+			if (this.tokenHashes[token] == hash && tokenName.length() == length
+					&& name.regionMatches(start, tokenName, 0, length))
+				return token; }
+		int token = this.tokenCount++;
+		if (token == this.tokenNames.length) {
+			this.tokenNames = Arrays.copyOf(this.tokenNames, token * 2);
+			this.tokenHashes = Arrays.copyOf(this.tokenHashes, token * 2); }
+		this.tokenNames[token] = name.substring(start, end);
+		this.tokenHashes[token] = hash;
+		this.tokenTable[slot] = token + 1;
+		if (this.tokenCount * 3 > this.tokenTable.length * 2)
+			growTokens();
+		return token;
+	}
+
+	private void growTokens()
+	{
+		this.tokenTable = new int[this.tokenTable.length * 2];
+		this.tokenMask = this.tokenTable.length - 1;
+		for (int token = 0; token < this.tokenCount; token++) {
+			int hash = this.tokenHashes[token];
+			int slot = (hash ^ (hash >>> 16)) & this.tokenMask;
+			while (this.tokenTable[slot] != 0)
+				slot = (slot + 1) & this.tokenMask;
+			this.tokenTable[slot] = token + 1; }
+	}
+
+}
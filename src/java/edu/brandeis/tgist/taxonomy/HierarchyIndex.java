@@ -0,0 +1,401 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index over the isa hierarchy that answers questions about ancestors without
+ * walking the hypernyms and hyponyms of technologies.
+ *
+ * The hierarchy is taken as a forest where the parent of a term is its first
+ * hypernym, which is its only one when the hierarchy was built by rhhr(). The
+ * children of a term are in the order of its hyponyms and the roots are in the
+ * order of their identifiers. The forest is walked once, depth first and
+ * without recursion, which gives for each term:
+ *
+ *		pre     position of the term in pre-order
+ *		post    position of the term in post-order
+ *		size    number of terms in its subtree, including itself
+ *		depth   number of ancestors
+ *
+ * A term is an ancestor of another if it comes before it in pre-order and
+ * after it in post-order, and its subtree is the range from pre to pre + size
+ * in pre-order, see termAt().
+ *
+ * For lowest common ancestors there is an Euler tour of the forest, below a
+ * virtual root so terms in different trees meet there, and the position of
+ * the first visit of each term. The lowest common ancestor of two terms is the
+ * shallowest term on the tour between their first visits. The tour is cut into
+ * blocks of BLOCK_SIZE with a sparse table over the shallowest term of each
+ * block, so a query looks at two partial blocks and two entries of the table.
+ * Unlike a sparse table over the whole tour, which would take 2n log n ints,
+ * this takes less memory than the tour itself.
+ *
+ * The index is written to hierarchy-index.bin next to hierarchy.txt, with the
+ * length and modification time of hierarchy.txt so that it is only read back
+ * if the hierarchy did not change:
+ *
+ *		magic version length modified termCount tourLength levels
+ *		blocks*levels
+ *		parent*termCount pre*termCount post*termCount size*termCount
+ *		depth*termCount order*termCount first*termCount tour*tourLength
+ *		(shallowest*blocks)*levels
+ *
+ * The length and modification time are longs, everything else is an int, all
+ * little-endian so the arrays are copied as they are on most machines.
+ */
+
+public class HierarchyIndex {
+
+	static final int MAGIC = 0x54474849;  // "TGHI"
+	static final int VERSION = 1;
+
+	static final int BLOCK_SHIFT = 4;
+	static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+	int termCount;
+
+	int[] parent;
+	int[] pre;
+	int[] post;
+	int[] size;
+	int[] depth;
+
+	/** The terms in pre-order. */
+	int[] order;
+
+	/** The Euler tour, termCount is the virtual root, and the depths on it. */
+	int[] tour;
+	int[] tourDepths;
+	int tourLength;
+	int[] first;
+
+	/** Tour positions of the shallowest terms, levels[k][b] for blocks b to b + 2^k. */
+	int[][] levels;
+
+
+	private HierarchyIndex(int termCount)
+	{
+		this.termCount = termCount;
+		this.parent = new int[termCount];
+		this.pre = new int[termCount];
+		this.post = new int[termCount];
+		this.size = new int[termCount];
+		this.depth = new int[termCount];
+		this.order = new int[termCount];
+		this.first = new int[termCount];
+		this.tour = new int[2 * termCount + 1];
+		this.tourDepths = new int[2 * termCount + 1];
+	}
+
+	/**
+	 * Build the index from the hypernyms and hyponyms of the technologies. If
+	 * the hypernyms make a cycle, the first term of the cycle that is found
+	 * becomes a root.
+	 *
+	 * @param technologies The technologies, indexed on identifier.
+	 * @return The index.
+	 */
+
+	static HierarchyIndex build(List<Technology> technologies)
+	{
+		int n = technologies.size();
+		HierarchyIndex index = new HierarchyIndex(n);
+		// the children of each term in a flat array
+		int[] childStart = new int[n + 1];
+		for (Technology tech : technologies) {
+			index.parent[tech.id] = tech.hypernyms.isEmpty() ? -1 : tech.hypernyms.get(0).id;
+			if (index.parent[tech.id] >= 0)
+				childStart[index.parent[tech.id] + 1]++; }
+		for (int i = 0; i < n; i++)
+			childStart[i + 1] += childStart[i];
+		int[] children = new int[childStart[n]];
+		int[] next = new int[n];
+		for (Technology tech : technologies)
+			for (Technology hyponym : tech.hyponyms)
+				if (index.parent[hyponym.id] == tech.id && next[tech.id] < childStart[tech.id + 1] - childStart[tech.id])
+					children[childStart[tech.id] + next[tech.id]++] = hyponym.id;
+		index.walk(childStart, children);
+		index.setTourDepths();
+		index.buildLevels();
+		return index;
+	}
+
+	/**
+	 * Walk the forest depth first from the virtual root. The virtual root goes
+	 * over the roots first and then over any term that was not reached, which
+	 * can only happen with a cycle.
+	 */
+
+	private void walk(int[] childStart, int[] children)
+	{
+		int n = this.termCount;
+		Arrays.fill(this.pre, -1);
+		int[] stack = new int[n + 1];
+		int[] positions = new int[n];
+		int top = 0;
+		int preCount = 0, postCount = 0;
+		int rootCursor = 0;
+		this.tour[this.tourLength++] = n;
+		while (true) {
+			int node = top == 0 ? n : stack[top - 1];
+			int child = -1;
+			if (node == n) {
+				while (rootCursor < 2 * n && child < 0) {
+					int candidate = rootCursor < n ? rootCursor : rootCursor - n;
+					if (this.pre[candidate] < 0 && (rootCursor >= n || this.parent[candidate] < 0))
+						child = candidate;
+					else
+						rootCursor++; }
+				if (child < 0)
+					break;
+				this.parent[child] = -1;
+			} else {
+				while (positions[node] < childStart[node + 1] - childStart[node] && child < 0) {
+					int candidate = children[childStart[node] + positions[node]++];
+					if (this.pre[candidate] < 0)
+						child = candidate; }
+			}
+			if (child >= 0) {
+				this.pre[child] = preCount;
+				this.order[preCount++] = child;
+				this.depth[child] = top;
+				this.first[child] = this.tourLength;
+				this.tour[this.tourLength++] = child;
+				stack[top++] = child;
+			} else {
+				this.post[node] = postCount++;
+				this.size[node] = preCount - this.pre[node];
+				top--;
+				this.tour[this.tourLength++] = top == 0 ? n : stack[top - 1];
+			}
+		}
+	}
+
+	private void setTourDepths()
+	{
+		for (int p = 0; p < this.tourLength; p++) {
+			int node = this.tour[p];
+			this.tourDepths[p] = node == this.termCount ? -1 : this.depth[node]; }
+	}
+
+	/** Return the position of the shallowest of two tour positions. */
+
+	private int shallowest(int p1, int p2)
+	{
+		return this.tourDepths[p2] < this.tourDepths[p1] ? p2 : p1;
+	}
+
+	private void buildLevels()
+	{
+		int blocks = (this.tourLength + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+		int levelCount = 1;
+		while ((1 << levelCount) <= blocks)
+			levelCount++;
+		this.levels = new int[levelCount][];
+		int[] base = new int[blocks];
+		for (int b = 0; b < blocks; b++) {
+			int start = b << BLOCK_SHIFT;
+			int best = start;
+			for (int p = start + 1; p < Math.min(this.tourLength, start + BLOCK_SIZE); p++)
+				best = shallowest(best, p);
+			base[b] = best; }
+		this.levels[0] = base;
+		for (int k = 1; k < levelCount; k++) {
+			int[] previous = this.levels[k - 1];
+			int[] level = new int[blocks - (1 << k) + 1];
+			for (int b = 0; b < level.length; b++)
+				level[b] = shallowest(previous[b], previous[b + (1 << (k - 1))]);
+			this.levels[k] = level; }
+	}
+
+	/** Return the position of the shallowest term on the tour from p1 to p2. */
+
+	private int shallowestBetween(int p1, int p2)
+	{
+		int b1 = p1 >> BLOCK_SHIFT;
+		int b2 = p2 >> BLOCK_SHIFT;
+		int best = p1;
+		if (b1 == b2) {
+			for (int p = p1 + 1; p <= p2; p++)
+				best = shallowest(best, p);
+			return best; }
+		for (int p = p1 + 1; p < (b1 + 1) << BLOCK_SHIFT; p++)
+			best = shallowest(best, p);
+		for (int p = b2 << BLOCK_SHIFT; p <= p2; p++)
+			best = shallowest(best, p);
+		if (b2 - b1 > 1) {
+			int k = 31 - Integer.numberOfLeadingZeros(b2 - b1 - 1);
+			best = shallowest(best, this.levels[k][b1 + 1]);
+			best = shallowest(best, this.levels[k][b2 - (1 << k)]); }
+		return best;
+	}
+
+	/** Return the parent of a term, or -1 if it is a root. */
+
+	int parent(int term)
+	{
+		return this.parent[term];
+	}
+
+	/** Return the number of ancestors of a term. */
+
+	int depth(int term)
+	{
+		return this.depth[term];
+	}
+
+	/** Return the number of terms in the subtree of a term, including itself. */
+
+	int subtreeSize(int term)
+	{
+		return this.size[term];
+	}
+
+	/** Return the term at a position in pre-order. */
+
+	int termAt(int position)
+	{
+		return this.order[position];
+	}
+
+	/**
+	 * Return whether a term is an ancestor of another term or the term itself.
+	 */
+
+	boolean isAncestor(int ancestor, int term)
+	{
+		return this.pre[ancestor] <= this.pre[term] && this.post[term] <= this.post[ancestor];
+	}
+
+	/**
+	 * Return the lowest common ancestor of two terms, which is one of them if
+	 * it is an ancestor of the other, or -1 if they are in different trees.
+	 */
+
+	int lowestCommonAncestor(int term1, int term2)
+	{
+		int p1 = this.first[term1];
+		int p2 = this.first[term2];
+		int node = this.tour[shallowestBetween(Math.min(p1, p2), Math.max(p1, p2))];
+		return node == this.termCount ? -1 : node;
+	}
+
+	/**
+	 * Write the index.
+	 *
+	 * @param file The file to write to.
+	 * @param hierarchyFile The hierarchy file the index was built from.
+	 * @throws IOException
+	 */
+
+	void write(File file, File hierarchyFile) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION);
+			buffer.putLong(hierarchyFile.length()).putLong(hierarchyFile.lastModified());
+			buffer.putInt(this.termCount).putInt(this.tourLength).putInt(this.levels.length);
+			for (int[] level : this.levels)
+				buffer.putInt(level.length);
+			for (int[] column : new int[][] {
+					this.parent, this.pre, this.post, this.size, this.depth, this.order, this.first })
+				writeInts(channel, buffer, column, this.termCount);
+			writeInts(channel, buffer, this.tour, this.tourLength);
+			for (int[] level : this.levels)
+				writeInts(channel, buffer, level, level.length);
+			flush(channel, buffer);
+		}
+	}
+
+	private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, int length)
+			throws IOException
+	{
+		for (int i = 0; i < length; ) {
+			if (buffer.remaining() < 4)
+				flush(channel, buffer);
+			int n = Math.min(length - i, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(values, i, n);
+			buffer.position(buffer.position() + 4 * n);
+			i += n; }
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Read an index written by write(), if it was built from the current
+	 * hierarchy file for the given number of terms.
+	 *
+	 * @param file The index file.
+	 * @param hierarchyFile The hierarchy file.
+	 * @param termCount The number of terms in the taxonomy.
+	 * @return The index, or null if there is none or it is out of date.
+	 * @throws IOException
+	 */
+
+	static HierarchyIndex read(File file, File hierarchyFile, int termCount) throws IOException
+	{
+		if (! file.isFile() || ! hierarchyFile.isFile())
+			return null;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.limit(36);
+			fill(channel, buffer);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+					|| buffer.getLong() != hierarchyFile.length()
+					|| buffer.getLong() != hierarchyFile.lastModified()
+					|| buffer.getInt() != termCount)
+				return null;
+			HierarchyIndex index = new HierarchyIndex(termCount);
+			index.tourLength = buffer.getInt();
+			index.levels = new int[buffer.getInt()][];
+			buffer.clear();
+			int[] levelLengths = new int[index.levels.length];
+			readInts(channel, buffer, levelLengths, levelLengths.length);
+			for (int[] column : new int[][] {
+					index.parent, index.pre, index.post, index.size, index.depth, index.order, index.first })
+				readInts(channel, buffer, column, termCount);
+			readInts(channel, buffer, index.tour, index.tourLength);
+			for (int k = 0; k < index.levels.length; k++) {
+				index.levels[k] = new int[levelLengths[k]];
+				readInts(channel, buffer, index.levels[k], levelLengths[k]); }
+			index.setTourDepths();
+			return index;
+		}
+	}
+
+	private static void readInts(FileChannel channel, ByteBuffer buffer, int[] values, int length)
+			throws IOException
+	{
+		for (int i = 0; i < length; ) {
+			buffer.clear();
+			buffer.limit(Math.min(buffer.capacity(), 4 * (length - i)));
+			fill(channel, buffer);
+			int n = buffer.remaining() / 4;
+			buffer.asIntBuffer().get(values, i, n);
+			i += n; }
+		buffer.clear();
+	}
+
+	private static void fill(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) < 0)
+				throw new IOException("unexpected end of hierarchy index");
+		buffer.flip();
+	}
+
+}
@@ -0,0 +1,181 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the hierarchy as a forest, starting from the terms that have no
+ * hypernym, with each term once, below its hypernym.
+ *
+ * The hierarchy is taken from the hierarchy index, where the hyponyms of a term
+ * follow it in pre-order and the subtree of each hyponym is a range of known
+ * size. The forest is walked with an explicit stack of open terms and the
+ * pre-order position of the next hyponym of each, so the time taken is linear
+ * in the number of isa relations and deep hierarchies cannot overflow the
+ * stack. Terms are written as they are reached, nothing is collected first.
+ *
+ * The output is either indented text, four spaces per level:
+ *
+ *		descent (3)
+ *		    coordinate descent (2)
+ *		        block coordinate descent (1)
+ *
+ * or JSON, an array of nested objects with a name, the size of the subtree if
+ * sizes are asked for and the hyponyms as children:
+ *
+ *		[{"name": "descent", "size": 3, "children": [ ... ]}]
+ *
+ * The depth and the number of hyponyms written per term can be limited. Below a
+ * term with more hyponyms than that the rest are counted, as "... n more" in
+ * text and as "more" in JSON. Terms at the maximum depth are written without
+ * their hyponyms, the size of their subtree shows what was left out.
+ */
+
+class HierarchyTreeWriter {
+
+	static final String INDENT = "    ";
+
+	Taxonomy taxonomy;
+	HierarchyIndex index;
+
+	/** The number of levels below the roots that are written, -1 for all. */
+	int maxDepth = -1;
+
+	/** The number of hyponyms written per term, -1 for all. */
+	int maxChildren = -1;
+
+	boolean sizes;
+	boolean json;
+
+	/** The number of terms written. */
+	int termCount;
+
+
+	HierarchyTreeWriter(Taxonomy taxonomy) throws IOException
+	{
+		this.taxonomy = taxonomy;
+		this.index = taxonomy.getHierarchyIndex();
+	}
+
+	/**
+	 * Write all trees of the hierarchy.
+	 *
+	 * @param writer The writer to write to, it is not closed.
+	 * @throws IOException
+	 */
+
+	void write(Writer writer) throws IOException
+	{
+		HierarchyIndex index = this.index;
+		int n = index.termCount;
+		// the open terms, with the pre-order position of their next hyponym
+		// and the number of hyponyms written so far
+		int[] stack = new int[n];
+		int[] nexts = new int[n];
+		int[] written = new int[n];
+		if (this.json)
+			writer.write("[");
+		for (int p = 0; p < n; p += index.size[index.order[p]]) {
+			if (this.json && p > 0)
+				writer.write(",");
+			int top = 0;
+			if (open(writer, index.order[p], 0)) {
+				stack[0] = index.order[p];
+				nexts[0] = p + 1;
+				written[0] = 0;
+				top = 1; }
+			while (top > 0) {
+				int term = stack[top - 1];
+				int end = index.pre[term] + index.size[term];
+				int next = nexts[top - 1];
+				if (next < end && (this.maxChildren < 0 || written[top - 1] < this.maxChildren)) {
+					int child = index.order[next];
+					nexts[top - 1] = next + index.size[child];
+					if (this.json && written[top - 1] > 0)
+						writer.write(",");
+					written[top - 1]++;
+					if (open(writer, child, top)) {
+						stack[top] = child;
+						nexts[top] = next + 1;
+						written[top] = 0;
+						top++; }
+				} else {
+					int more = 0;
+					for (int q = next; q < end; q += index.size[index.order[q]])
+						more++;
+					top--;
+					close(writer, top, more);
+				}
+			}
+		}
+		if (this.json)
+			writer.write("\n]\n");
+	}
+
+	/**
+	 * Write a term and return whether its hyponyms are written after it. If not,
+	 * the term is also closed.
+	 */
+
+	private boolean open(Writer writer, int term, int depth) throws IOException
+	{
+		this.termCount++;
+		String name = this.taxonomy.getTechnology(term).name;
+		int size = this.index.size[term];
+		boolean expand = size > 1 && (this.maxDepth < 0 || depth < this.maxDepth);
+		if (this.json) {
+			writer.write("\n");
+			indent(writer, depth);
+			writer.write("{\"name\": ");
+			writeJsonString(writer, name);
+			if (this.sizes)
+				writer.write(", \"size\": " + size);
+			writer.write(expand ? ", \"children\": [" : "}");
+		} else {
+			indent(writer, depth);
+			writer.write(name);
+			if (this.sizes)
+				writer.write(" (" + size + ")");
+			writer.write("\n"); }
+		return expand;
+	}
+
+	/**
+	 * Close a term whose hyponyms were written, more is the number of hyponyms
+	 * that were left out.
+	 */
+
+	private void close(Writer writer, int depth, int more) throws IOException
+	{
+		if (this.json) {
+			writer.write("]");
+			if (more > 0)
+				writer.write(", \"more\": " + more);
+			writer.write("}");
+		} else if (more > 0) {
+			indent(writer, depth + 1);
+			writer.write("... " + more + " more\n"); }
+	}
+
+	private static void indent(Writer writer, int depth) throws IOException
+	{
+		for (int i = 0; i < depth; i++)
+			writer.write(INDENT);
+	}
+
+	private static void writeJsonString(Writer writer, String text) throws IOException
+	{
+		writer.write('"');
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c != '"' && c != '\\' && c >= 0x20)
+				continue;
+			writer.write(text, start, i - start);
+			writer.write(c < 0x20 ? String.format("\\u%04x", (int) c) : "\\" + c);
+			start = i + 1; }
+		writer.write(text, start, text.length() - start);
+		writer.write('"');
+	}
+
+}
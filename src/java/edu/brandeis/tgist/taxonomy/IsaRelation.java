@@ -4,14 +4,11 @@ class IsaRelation {
 
 	public static final String RHHR = "rhhr";
 
-	public static int count = 0;
-
 	String type;
 	Technology source;
 	Technology target;
 
 	IsaRelation(String type, Technology source, Technology target) {
-		count++;
 		this.type = type;
 		this.source = source;
 		this.target = target;
@@ -31,7 +28,7 @@ class IsaRelation {
 	}
 
 	public String asTabSeparatedString(Technology tech) {
-		if (tech.name.equals(source.name)) {
+		if (tech.id == this.source.id) {
 			return String.format("%s\t%s\n", this.type, this.target.name);
 		} else {
 			return asTabSeparatedString();
@@ -0,0 +1,308 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Feature vector that is parsed on demand.
+ *
+ * The vector keeps either the raw tab-separated line or a copy of the codes of
+ * a feature store record and nothing is decoded until it is asked for. For a
+ * line, only the positions of the tabs are computed up front, the file name and
+ * term are cut out of the line when they are first needed and a feature value
+ * is only looked for when getFeature() is called. For a store record, values are
+ * looked up in the dictionaries of the store, which does not create any strings.
+ *
+ * Code that processes relations typically only looks at the term, the file name
+ * and a handful of features, so most of each vector is never decoded.
+ */
+
+class LazyFeatureVector extends FeatureVector {
+
+	// Backing for vectors created from a tab-separated line
+
+	String line;
+	int[] tabs = new int[32];
+	int fieldCount;
+
+	// Backing for vectors created from a feature store record
+
+	String[][] dictionaries;
+	int fileCode;
+	int idCode;
+	byte[] idBytes = new byte[16];
+	int termCode;
+	int featureCount;
+	int[] nameCodes = new int[32];
+	int[] valueCodes = new int[32];
+	int[] featurePositions = new int[FEAT_LIST.length];
+
+	/** Bit i is set if featureList[i] has the value of FEAT_LIST[i] for a line. */
+	long decoded;
+
+
+	LazyFeatureVector()
+	{
+		this.featureList = new String[FEAT_LIST.length];
+	}
+
+	/**
+	 * Create a vector from a line in the format of features.txt.
+	 *
+	 * @param line Tab-separated String.
+	 */
+
+	LazyFeatureVector(String line)
+	{
+		this();
+		setLine(line);
+	}
+
+	/**
+	 * Create a vector from the current record of a feature store.
+	 *
+	 * @param reader A FeatureStoreReader.
+	 */
+
+	LazyFeatureVector(FeatureStoreReader reader)
+	{
+		this();
+		setRecord(reader);
+	}
+
+	private void clear()
+	{
+		this.fileName = null;
+		this.id = null;
+		this.term = null;
+		this.features = null;
+		this.termId = -1;
+		this.decoded = 0L;
+		this.line = null;
+		this.dictionaries = null;
+	}
+
+	/**
+	 * Make this a vector for a line. Only finds the tabs and parses the year.
+	 */
+
+	final void setLine(String line)
+	{
+		clear();
+		this.line = line;
+		int n = 0;
+		for (int i = line.indexOf('\t'); i >= 0; i = line.indexOf('\t', i + 1)) {
+			if (n == this.tabs.length)
+				this.tabs = Arrays.copyOf(this.tabs, n * 2);
+			this.tabs[n++] = i; }
+		this.fieldCount = n + 1;
+		this.year = parseInt(line, fieldStart(2), fieldEnd(2));
+	}
+
+	/**
+	 * Make this a vector for the current record of a feature store.
+	 */
+
+	final void setRecord(FeatureStoreReader reader)
+	{
+		clear();
+		reader.copyTo(this);
+	}
+
+	/**
+	 * Make this vector a copy of another lazy vector. Arrays are copied and not
+	 * shared, so the other vector can be reset afterwards.
+	 */
+
+	final void setFrom(LazyFeatureVector other)
+	{
+		this.fileName = other.fileName;
+		this.id = other.id;
+		this.term = other.term;
+		this.features = other.features;
+		this.termId = other.termId;
+		this.year = other.year;
+		this.decoded = other.decoded;
+		System.arraycopy(other.featureList, 0, this.featureList, 0, FEAT_LIST.length);
+		this.line = other.line;
+		this.dictionaries = other.dictionaries;
+		if (other.line != null) {
+			this.fieldCount = other.fieldCount;
+			this.tabs = copy(other.tabs, this.tabs, other.fieldCount - 1);
+		} else {
+			this.fileCode = other.fileCode;
+			this.idCode = other.idCode;
+			if ((other.idCode & 1) == 0)
+				this.idBytes = copy(other.idBytes, this.idBytes, other.idCode >>> 1);
+			this.termCode = other.termCode;
+			this.featureCount = other.featureCount;
+			this.nameCodes = copy(other.nameCodes, this.nameCodes, other.featureCount);
+			this.valueCodes = copy(other.valueCodes, this.valueCodes, other.featureCount);
+			System.arraycopy(
+					other.featurePositions, 0, this.featurePositions, 0, FEAT_LIST.length);
+		}
+	}
+
+	private static int[] copy(int[] source, int[] target, int length)
+	{
+		if (target.length < length)
+			target = new int[source.length];
+		System.arraycopy(source, 0, target, 0, length);
+		return target;
+	}
+
+	private static byte[] copy(byte[] source, byte[] target, int length)
+	{
+		if (target.length < length)
+			target = new byte[source.length];
+		System.arraycopy(source, 0, target, 0, length);
+		return target;
+	}
+
+	private int fieldStart(int field)
+	{
+		return field == 0 ? 0 : this.tabs[field - 1] + 1;
+	}
+
+	private int fieldEnd(int field)
+	{
+		return field == this.fieldCount - 1 ? this.line.length() : this.tabs[field];
+	}
+
+	private String field(int field)
+	{
+		return this.line.substring(fieldStart(field), fieldEnd(field));
+	}
+
+	private static int parseInt(String s, int start, int end)
+	{
+		// the same as Integer.parseInt() for the usual case of a plain year
+		boolean plain = end > start && end - start < 10;
+		int result = 0;
+		for (int i = start; plain && i < end; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') plain = false;
+			result = result * 10 + (c - '0'); }
+		return plain ? result : Integer.parseInt(s.substring(start, end));
+	}
+
+	@Override
+	public String getFileName()
+	{
+		if (this.fileName == null)
+			this.fileName = this.line != null
+					? field(0)
+					: this.dictionaries[FeatureStore.FILES][this.fileCode];
+		return this.fileName;
+	}
+
+	@Override
+	public String getId()
+	{
+		if (this.id == null) {
+			if (this.line != null)
+				this.id = field(1);
+			else if ((this.idCode & 1) == 1)
+				this.id = FeatureStore.intAsString(this.idCode >>> 1);
+			else
+				this.id = new String(
+						this.idBytes, 0, this.idCode >>> 1, StandardCharsets.UTF_8); }
+		return this.id;
+	}
+
+	@Override
+	public String getTerm()
+	{
+		if (this.term == null)
+			this.term = this.line != null
+					? field(3)
+					: this.dictionaries[FeatureStore.TERMS][this.termCode];
+		return this.term;
+	}
+
+	/**
+	 * Return the value of a feature, decoding it if needed. If a feature occurs
+	 * more than once the last value is returned, just like for a FeatureVector
+	 * with an index.
+	 */
+
+	@Override
+	public String getFeature(String feat)
+	{
+		Integer idx = FEAT_IDX.get(feat);
+		if (this.line == null) {
+			if (idx != null) {
+				int i = this.featurePositions[idx];
+				return i < 0 ? null : storeValue(i); }
+			for (int i = this.featureCount - 1; i >= 0; i--) {
+				if (storeName(i).equals(feat))
+					return storeValue(i); }
+			return null;
+		}
+		if (idx == null)
+			return findFeature(feat);
+		long bit = 1L << idx;
+		if ((this.decoded & bit) == 0) {
+			this.featureList[idx] = findFeature(feat);
+			this.decoded |= bit; }
+		return this.featureList[idx];
+	}
+
+	private String findFeature(String feat)
+	{
+		int length = feat.length();
+		for (int f = this.fieldCount - 1; f > 3; f--) {
+			int start = fieldStart(f);
+			int end = fieldEnd(f);
+			if (end > start + length
+					&& this.line.charAt(start + length) == '='
+					&& this.line.startsWith(feat, start))
+				return this.line.substring(start + length + 1, end);
+		}
+		return null;
+	}
+
+	private String storeName(int i)
+	{
+		return this.dictionaries[FeatureStore.NAMES][this.nameCodes[i] >>> 1];
+	}
+
+	private String storeValue(int i)
+	{
+		int code = this.valueCodes[i];
+		if (code < 0)
+			return null;
+		if ((code & 1) == 1)
+			return FeatureStore.intAsString(code >>> 1);
+		return this.dictionaries[FeatureStore.VALUES][code >>> 1];
+	}
+
+	/**
+	 * Return the features as strings. This decodes all features and is only
+	 * meant for writing vectors.
+	 */
+
+	@Override
+	public String[] getFeatures()
+	{
+		if (this.features != null)
+			return this.features;
+		List<String> feats = new ArrayList<>();
+		if (this.line != null) {
+			for (int f = 4; f < this.fieldCount; f++)
+				feats.add(field(f));
+			// String.split() drops trailing empty fields
+			while (! feats.isEmpty() && feats.get(feats.size() - 1).isEmpty())
+				feats.remove(feats.size() - 1);
+		} else {
+			for (int i = 0; i < this.featureCount; i++) {
+				String value = storeValue(i);
+				feats.add(value == null ? storeName(i) : storeName(i) + '=' + value); }
+		}
+		this.features = feats.toArray(new String[feats.size()]);
+		return this.features;
+	}
+
+}
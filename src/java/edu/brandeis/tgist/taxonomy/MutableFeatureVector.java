@@ -0,0 +1,52 @@
+package edu.brandeis.tgist.taxonomy;
+
+/**
+ * Lazy feature vector that can be reused for other lines or records.
+ *
+ * This is for streaming passes over the features, where one instance can be
+ * reset for each vector so that nothing is allocated per vector. Any code that
+ * wants to hold on to a vector after the next reset should copy it into its
+ * own MutableFeatureVector with copyFrom(), like CooccurrenceWindow does.
+ */
+
+class MutableFeatureVector extends LazyFeatureVector {
+
+	MutableFeatureVector()
+	{
+		super();
+	}
+
+	/**
+	 * Reset the vector to a line in the format of features.txt.
+	 *
+	 * @param line Tab-separated String.
+	 */
+
+	void reset(String line)
+	{
+		setLine(line);
+	}
+
+	/**
+	 * Reset the vector to the current record of a feature store.
+	 *
+	 * @param reader A FeatureStoreReader.
+	 */
+
+	void reset(FeatureStoreReader reader)
+	{
+		setRecord(reader);
+	}
+
+	/**
+	 * Reset the vector to a copy of another lazy vector.
+	 *
+	 * @param other A LazyFeatureVector.
+	 */
+
+	void copyFrom(LazyFeatureVector other)
+	{
+		setFrom(other);
+	}
+
+}
@@ -0,0 +1,107 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Buffer of pairs and counts that is written to a run when it is full. A buffer
+ * is used by one thread only.
+ */
+
+class PairBuffer implements PairCounter {
+
+	CooccurrenceRuns runs;
+	long[] keys;
+	int[] counts;
+	int size;
+	boolean allOnes = true;
+
+	PairBuffer(CooccurrenceRuns runs, int size)
+	{
+		this.runs = runs;
+		this.keys = new long[size];
+		this.counts = new int[size];
+	}
+
+	@Override
+	public void count(int term1, int term2)
+	{
+		add(CooccurrenceTable.key(term1, term2), 1);
+	}
+
+	void add(long key, int count)
+	{
+		if (this.size == this.keys.length)
+			spill();
+		this.keys[this.size] = key;
+		this.counts[this.size] = count;
+		this.allOnes &= count == 1;
+		this.size++;
+	}
+
+	/**
+	 * Sort the buffer, add up equal keys and write the result to a new run.
+	 */
+
+	void spill()
+	{
+		if (this.size == 0)
+			return;
+		// keys with a count of one each sort without their counts
+		if (this.allOnes)
+			Arrays.sort(this.keys, 0, this.size);
+		else
+			sort(this.keys, this.counts, 0, this.size - 1);
+		File run = this.runs.newRun();
+		try (DataOutputStream out = CooccurrenceRuns.openRun(run)) {
+			int i = 0;
+			while (i < this.size) {
+				long key = this.keys[i];
+				int count = 0;
+				for (; i < this.size && this.keys[i] == key; i++)
+					count += this.allOnes ? 1 : this.counts[i];
+				out.writeLong(key);
+				out.writeInt(count); }
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex); }
+		this.size = 0;
+		this.allOnes = true;
+	}
+
+	/**
+	 * Quicksort of keys[lo..hi] that moves the counts along with the keys.
+	 */
+
+	private static void sort(long[] keys, int[] counts, int lo, int hi)
+	{
+		while (hi - lo > 16) {
+			long pivot = keys[lo + (hi - lo) / 2];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (keys[i] < pivot) i++;
+				while (keys[j] > pivot) j--;
+				if (i <= j)
+					swap(keys, counts, i++, j--); }
+			// recurse on the smaller part and loop on the larger one
+			if (j - lo < hi - i) {
+				sort(keys, counts, lo, j);
+				lo = i;
+			} else {
+				sort(keys, counts, i, hi);
+				hi = j; }
+		}
+		for (int i = lo + 1; i <= hi; i++)
+			for (int j = i; j > lo && keys[j - 1] > keys[j]; j--)
+				swap(keys, counts, j, j - 1);
+	}
+
+	private static void swap(long[] keys, int[] counts, int i, int j)
+	{
+		long key = keys[i]; keys[i] = keys[j]; keys[j] = key;
+		int count = counts[i]; counts[i] = counts[j]; counts[j] = count;
+	}
+
+}
@@ -0,0 +1,10 @@
+package edu.brandeis.tgist.taxonomy;
+
+/**
+ * Something that counts cooccurrences of pairs of terms.
+ */
+
+interface PairCounter {
+
+	void count(int term1, int term2);
+}
@@ -0,0 +1,31 @@
+package edu.brandeis.tgist.taxonomy;
+
+/**
+ * A predicate of term relations, with its tokens for matching it in a context.
+ */
+
+class Predicate {
+
+	String name;
+	String[] tokens;
+
+	Predicate(String rel) {
+		this.name = rel.replace('_', ' ');
+		this.tokens = this.name.split(" ");
+	}
+
+	/**
+	 * Return the position of the first occurrence of the predicate in a
+	 * sequence of tokens, or -1 if it does not occur.
+	 */
+	int find(String[] toks) {
+		for (int i = 0; i + this.tokens.length <= toks.length; i++) {
+			int j = 0;
+			while (j < this.tokens.length && this.tokens[j].equals(toks[i + j]))
+				j++;
+			if (j == this.tokens.length)
+				return i; }
+		return -1;
+	}
+
+}
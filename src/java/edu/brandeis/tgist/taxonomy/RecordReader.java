@@ -0,0 +1,320 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reader for the tab-separated files of a taxonomy.
+ *
+ * The file is memory-mapped, one segment at a time, and each line is copied
+ * into a byte array that is reused for all lines. After next() the fields of
+ * the line are available as slices of that array, nothing is decoded unless a
+ * loader asks for a String or a number. Terms are looked up in the taxonomy
+ * from their bytes, so a loader only creates strings for fields it stores.
+ *
+ * A reader can be limited to a range of the file, which is how files are read
+ * in chunks on several threads, see chunks().
+ *
+ * Fields follow the behaviour of String.split("\t") on the line: trailing empty
+ * fields are dropped, and if the reader trims lines, leading and trailing
+ * whitespace is removed before splitting, just like String.trim(). Lines end
+ * in "\n" or "\r\n".
+ *
+ *		try (RecordReader reader = new RecordReader(file, false)) {
+ *			while (reader.next()) {
+ *				Technology tech = reader.getTechnology(0, taxonomy);
+ *				int count = reader.getInt(1);
+ *				...
+ *			}
+ *		}
+ */
+
+public class RecordReader implements Closeable {
+
+	static final long SEGMENT = 1L << 28;
+
+	/** Chunks created by chunks() are not smaller than this. */
+	static final long MIN_CHUNK = 1L << 20;
+
+	RandomAccessFile file;
+	FileChannel channel;
+	long end;
+	boolean trim;
+
+	// The current segment and the position of the next line in it
+	MappedByteBuffer segment;
+	long segmentStart;
+	int position;
+
+	// The current line and the offsets of its fields
+	byte[] line = new byte[1024];
+	int length;
+	int[] starts = new int[16];
+	int[] ends = new int[16];
+	int fieldCount;
+	long lineNumber;
+
+
+	/**
+	 * Open a file for reading.
+	 *
+	 * @param file The file to read.
+	 * @param trim Whether to trim whitespace from the start and end of lines.
+	 * @throws IOException
+	 */
+
+	RecordReader(File file, boolean trim) throws IOException
+	{
+		this(file, trim, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Open a range of a file for reading. The range should start at the start
+	 * of a line and end after a line end or at the end of the file.
+	 *
+	 * @param file The file to read.
+	 * @param trim Whether to trim whitespace from the start and end of lines.
+	 * @param start The offset of the first byte to read.
+	 * @param end The offset after the last byte to read.
+	 * @throws IOException
+	 */
+
+	RecordReader(File file, boolean trim, long start, long end) throws IOException
+	{
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.end = Math.min(end, this.channel.size());
+		this.trim = trim;
+		this.segmentStart = Math.min(start, this.end);
+		map();
+	}
+
+	/**
+	 * Split a file into at most n ranges that start at line boundaries, for
+	 * reading the file on several threads. Small files get fewer ranges.
+	 *
+	 * @param file The file to split.
+	 * @param n The maximum number of ranges.
+	 * @return A list of ranges, each an array with a start and an end offset.
+	 * @throws IOException
+	 */
+
+	static List<long[]> chunks(File file, int n) throws IOException
+	{
+		List<long[]> chunks = new ArrayList<>();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			long size = raf.length();
+			n = (int) Math.max(1, Math.min(n, size / MIN_CHUNK));
+			long start = 0;
+			for (int i = 1; i <= n && start < size; i++) {
+				long end = size * i / n;
+				if (i < n && end > start) {
+					// move the end to just after the next line end
+					raf.seek(end - 1);
+					int b;
+					while ((b = raf.read()) >= 0 && b != '\n')
+						end++; }
+				if (i == n || end > size)
+					end = size;
+				if (end > start)
+					chunks.add(new long[] { start, end });
+				start = end; }
+		}
+		return chunks;
+	}
+
+	private void map() throws IOException
+	{
+		long length = Math.min(SEGMENT, this.end - this.segmentStart);
+		this.segment = this.channel.map(
+				FileChannel.MapMode.READ_ONLY, this.segmentStart, length);
+		this.position = 0;
+	}
+
+	/**
+	 * Move to the next line.
+	 *
+	 * @return False if there are no more lines, true otherwise.
+	 * @throws IOException
+	 */
+
+	public boolean next() throws IOException
+	{
+		if (this.segmentStart + this.position >= this.end)
+			return false;
+		this.length = 0;
+		while (true) {
+			MappedByteBuffer buffer = this.segment;
+			int limit = buffer.limit();
+			int start = this.position;
+			int end = start;
+			while (end < limit && buffer.get(end) != '\n')
+				end++;
+			append(buffer, start, end);
+			if (end < limit) {
+				this.position = end + 1;
+				break; }
+			// the line continues in the next segment, or the file has no final newline
+			this.segmentStart += limit;
+			if (this.segmentStart >= this.end) {
+				this.position = 0;
+				break; }
+			map();
+		}
+		this.lineNumber++;
+		split();
+		return true;
+	}
+
+	private void append(MappedByteBuffer buffer, int start, int end)
+	{
+		int n = end - start;
+		if (this.length + n > this.line.length)
+			this.line = Arrays.copyOf(this.line, Math.max(this.length + n, this.line.length * 2));
+		buffer.position(start);
+		buffer.get(this.line, this.length, n);
+		this.length += n;
+	}
+
+	private void split()
+	{
+		byte[] bytes = this.line;
+		int start = 0;
+		int end = this.length;
+		if (end > 0 && bytes[end - 1] == '\r')
+			end--;
+		if (this.trim) {
+			while (start < end && (bytes[start] & 0xff) <= ' ') start++;
+			while (end > start && (bytes[end - 1] & 0xff) <= ' ') end--; }
+		int n = 0;
+		int fieldStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || bytes[i] == '\t') {
+				if (n == this.starts.length) {
+					this.starts = Arrays.copyOf(this.starts, n * 2);
+					this.ends = Arrays.copyOf(this.ends, n * 2); }
+				this.starts[n] = fieldStart;
+				this.ends[n] = i;
+				n++;
+				fieldStart = i + 1; }
+		}
+		// like String.split(), drop trailing empty fields but keep one field
+		while (n > 1 && this.starts[n - 1] == this.ends[n - 1])
+			n--;
+		this.fieldCount = n;
+	}
+
+	/** Return the number of the current line, starting at 1. */
+
+	public long lineNumber()
+	{
+		return this.lineNumber;
+	}
+
+	public int fieldCount()
+	{
+		return this.fieldCount;
+	}
+
+	/** Return the bytes of the current line, valid until the next call to next(). */
+
+	public byte[] bytes()
+	{
+		return this.line;
+	}
+
+	public int start(int field)
+	{
+		if (field >= this.fieldCount)
+			throw new ArrayIndexOutOfBoundsException(field);
+		return this.starts[field];
+	}
+
+	public int length(int field)
+	{
+		return this.ends[field] - start(field);
+	}
+
+	/** Return true if the current line starts with a tab. */
+
+	public boolean startsWithTab()
+	{
+		return this.length > 0 && this.line[0] == '\t';
+	}
+
+	/** Return the whole current line, without the line ending. */
+
+	public String getLine()
+	{
+		int end = this.length;
+		if (end > 0 && this.line[end - 1] == '\r')
+			end--;
+		return new String(this.line, 0, end, StandardCharsets.UTF_8);
+	}
+
+	public String getString(int field)
+	{
+		return new String(this.line, start(field), length(field), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parse a field as an integer. Fields that are not plain decimal numbers are
+	 * handed to Integer.parseInt(), which throws the usual exception.
+	 */
+
+	public int getInt(int field)
+	{
+		int i = start(field);
+		int end = this.ends[field];
+		boolean negative = i < end && this.line[i] == '-';
+		if (negative) i++;
+		if (i == end || end - i > 9)
+			return Integer.parseInt(getString(field));
+		int result = 0;
+		for (; i < end; i++) {
+			int digit = this.line[i] - '0';
+			if (digit < 0 || digit > 9)
+				return Integer.parseInt(getString(field));
+			result = result * 10 + digit; }
+		return negative ? -result : result;
+	}
+
+	public float getFloat(int field)
+	{
+		return Float.parseFloat(
+				new String(this.line, start(field), length(field), StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * Return the technology that a field names, or null if the field is not a
+	 * technology of the taxonomy. The lookup uses the bytes of the field and
+	 * does not create a String.
+	 */
+
+	public Technology getTechnology(int field, Taxonomy taxonomy)
+	{
+		int id = getTermId(field, taxonomy);
+		return id < 0 ? null : taxonomy.getTechnology(id);
+	}
+
+	public int getTermId(int field, Taxonomy taxonomy)
+	{
+		return taxonomy.getTermIndex().get(this.line, start(field), length(field));
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.segment = null;
+		this.file.close();
+	}
+
+}
@@ -0,0 +1,77 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * K-way merge over runs, each key is returned once with the sum of its counts.
+ */
+
+class RunMerger implements Closeable {
+
+	PriorityQueue<RunReader> queue;
+	List<RunReader> readers = new ArrayList<>();
+	long key;
+	int count;
+
+	RunMerger(List<File> runs) throws IOException
+	{
+		this.queue = new PriorityQueue<>(Math.max(1, runs.size()),
+				(r1, r2) -> Long.compare(r1.key, r2.key));
+		try {
+			for (File run : runs) {
+				RunReader reader = new RunReader(run);
+				this.readers.add(reader);
+				if (reader.next())
+					this.queue.add(reader); }
+		} catch (IOException ex) {
+			close();
+			throw ex; }
+	}
+
+	/**
+	 * Move to the next key.
+	 *
+	 * @return False if there are no more keys, true otherwise.
+	 * @throws IOException
+	 */
+
+	boolean next() throws IOException
+	{
+		if (this.queue.isEmpty())
+			return false;
+		RunReader reader = this.queue.poll();
+		this.key = reader.key;
+		this.count = reader.count;
+		if (reader.next())
+			this.queue.add(reader);
+		while (! this.queue.isEmpty() && this.queue.peek().key == this.key) {
+			reader = this.queue.poll();
+			this.count += reader.count;
+			if (reader.next())
+				this.queue.add(reader); }
+		return true;
+	}
+
+	long key()
+	{
+		return this.key;
+	}
+
+	int count()
+	{
+		return this.count;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		for (RunReader reader : this.readers)
+			reader.in.close();
+	}
+
+}
@@ -0,0 +1,35 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the pairs of a run file, in the order they were written.
+ */
+
+class RunReader {
+
+	DataInputStream in;
+	long key;
+	int count;
+
+	RunReader(File run) throws IOException
+	{
+		this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+	}
+
+	boolean next() throws IOException
+	{
+		try {
+			this.key = this.in.readLong();
+		} catch (EOFException ex) {
+			return false; }
+		this.count = this.in.readInt();
+		return true;
+	}
+
+}
@@ -0,0 +1,53 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary that assigns consecutive codes to strings.
+ */
+
+class StringDictionary {
+
+	Map<String, Integer> codes = new HashMap<>();
+	List<String> strings = new ArrayList<>();
+
+	int code(String s) {
+		Integer code = this.codes.get(s);
+		if (code == null) {
+			code = this.strings.size();
+			this.codes.put(s, code);
+			this.strings.add(s); }
+		return code;
+	}
+
+	/**
+	 * Add a string at the next position, even if it is already in the
+	 * dictionary, in which case the string's code will be the new position.
+	 */
+	void append(String s) {
+		this.codes.put(s, this.strings.size());
+		this.strings.add(s);
+	}
+
+	int size() {
+		return this.strings.size();
+	}
+
+	void writeTo(OutputStream out) throws IOException {
+		ByteSink sink = new ByteSink();
+		sink.writeVarint(this.strings.size());
+		sink.writeTo(out);
+		for (String s : this.strings) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			sink.reset();
+			sink.writeVarint(bytes.length);
+			sink.writeTo(out);
+			out.write(bytes); }
+	}
+}
@@ -6,12 +6,24 @@ import java.io.IOException;
 import static java.lang.Math.log;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,9 +36,15 @@ import java.util.logging.Logger;
  * outside (created by tgist-features and tgist-classifiers) , the hierarchy
  * and the term relations are created by this class.
  *
- * The current implementation is static. You import terms and features once
- * and you generate hierarchy and relations once. There is not yet any incremental
- * updating.
+ * Technologies are kept in a map indexed on their names and in a list indexed
+ * on their identifiers. Names are only used when reading and writing data,
+ * everything else, including feature vectors and relations, uses identifiers.
+ *
+ * Terms and features are imported once, after which data from more corpora
+ * can be added with appendData(). Appending data adds the new terms to the
+ * hierarchy if it was up to date, see addToHierarchy(), and marks the
+ * relations as stale in the properties file, they are not updated until they
+ * are generated again.
  */
 
 public class Taxonomy {
@@ -37,6 +55,9 @@ public class Taxonomy {
 	/** The name of the file that stores the feature vectors. */
 	public static final String FEATURES_FILE = "features.txt";
 
+	/** The name of the file that stores the feature vectors in binary form. */
+	public static final String FEATURE_STORE = "features.bin";
+
 	/** The name of the file that stores the technology terms. */
 	public static final String TERMS_FILE = "terms.txt";
 
@@ -46,12 +67,21 @@ public class Taxonomy {
 	/** The name of the file that stores the hierarchical relations. */
 	public static final String HIERARCHY_FILE = "hierarchy.txt";
 
+	/** The name of the file that stores the index over the hierarchy. */
+	public static final String HIERARCHY_INDEX_FILE = "hierarchy-index.bin";
+
 	/** The name of the file that stores cooccurrence relations between terms. */
 	public static final String RELATIONS_FILE = "relations-cooc.txt";
 
 	/** The name of the file that stores term relations between terms. */
 	public static final String TERM_RELATIONS_FILE = "relations-term.txt";
 
+	/** The name of the file that stores association scores of term pairs. */
+	public static final String SCORES_FILE = "relations-scores.bin";
+
+	/** The name of the file that stores the related terms of each term. */
+	public static final String TOP_RELATIONS_FILE = "relations-top.bin";
+
 	/** The name of the file with input terms. */
 	public static final String INPUT_TERMS = "classify.MaxEnt.out.s4.scores.sum.az";
 
@@ -67,19 +97,143 @@ public class Taxonomy {
 	/** The minimum term count required for a term to be included. */
 	public static int MINCOUNT = 2;
 
+	/** Whether the import writes features to the feature store or to features.txt. */
+	public static boolean BINARY_FEATURES = true;
+
+	/** The number of levels below the roots in a hierarchy tree, -1 for all. */
+	public static int TREE_DEPTH = -1;
+
+	/** The number of hyponyms of a term in a hierarchy tree, -1 for all. */
+	public static int TREE_FAN_OUT = -1;
+
+	/** Whether a hierarchy tree has the size of the subtree of each term. */
+	public static boolean TREE_SIZES = false;
+
+	/** Whether a hierarchy tree is written as JSON instead of indented text. */
+	public static boolean TREE_JSON = false;
+
+	/** The number of threads that parse and filter features during import. */
+	public static int IMPORT_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** The number of lines handed to an import thread at a time. */
+	public static int IMPORT_BATCH_SIZE = 10_000;
+
+	/** The number of threads that parse the taxonomy files when loading. */
+	public static int LOAD_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The number of threads that extract relations, with 1 the feature vectors
+	 * are processed in one pass on the calling thread.
+	 */
+	public static int RELATION_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The number of threads that build the hierarchy, terms are divided over
+	 * them by their head, see HeadTrie.
+	 */
+	public static int HIERARCHY_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** The number of vectors in a shard for relation extraction. */
+	public static int RELATION_SHARD_SIZE = 10_000;
+
+	/** Whether adding relations counts cooccurrences. */
+	public static boolean COOCCURRENCES = true;
+
+	/** Whether adding relations extracts term relations. */
+	public static boolean TERM_RELATIONS = true;
+
+	/**
+	 * The number of candidate pairs of vectors that can wait for the term
+	 * relation stage, see TermRelationStage.
+	 */
+	public static int TERM_RELATION_QUEUE = 10_000;
+
+	/** The number of terms in the window used for cooccurrence relations. */
+	public static int WINDOW_SIZE = 2;
+
+	/**
+	 * The maximum distance in sentences between terms in the window, -1 for
+	 * no limit other than the document.
+	 */
+	public static int WINDOW_SENTENCES = -1;
+
+	/**
+	 * Memory in bytes for counting cooccurrences on disk when adding relations.
+	 * With 0 the counts are kept in memory, see addRelationsFromRuns().
+	 */
+	public static long RELATION_MEMORY = 0;
+
+	/**
+	 * Memory in bytes for approximate cooccurrence counts, 0 for exact counts.
+	 * This takes precedence over RELATION_MEMORY, see ApproximateCounter.
+	 */
+	public static long APPROXIMATE_MEMORY = 0;
+
+	/** The number of candidate neighbours per term for approximate counts. */
+	public static int APPROXIMATE_CANDIDATES = 20;
+
+	/** Whether to also count exactly and report on the approximate counts. */
+	public static boolean APPROXIMATE_CHECK = false;
+
+	/**
+	 * Whether adding relations removes infrequent relations of terms that have
+	 * many relations, see filterRelations().
+	 */
+	public static boolean FILTER_RELATIONS = false;
+
+	/**
+	 * The number of related terms per term kept in the index written when
+	 * adding relations, see TopRelations.
+	 */
+	public static int TOP_RELATIONS = 20;
+
+	/** The maximum number of example contexts kept for a term relation. */
+	public static int TERM_RELATION_EXAMPLES = 3;
+
 	// TODO: allow changing TECHSCORE and MINCOUNT in the calling method and add
 	// TODO: ... the values chosen to the properties file
 
 	/** Number of terms to display on the splash screen. */
 	public static int NUMBER_OF_TERMS = 25;
 
+	/** Name used in the properties file for a stale hierarchy. */
+	public static final String HIERARCHY = "hierarchy";
+
+	/** Name used in the properties file for stale relations. */
+	public static final String RELATIONS = "relations";
+
 	public String name;
 	public String location;
 	public String data;
+
+	/** Data directories that were added after the first import. */
+	public List<String> appended;
+
+	/** Parts of the taxonomy that were not updated after data were appended. */
+	public Set<String> stale;
 	public HashMap<String, Technology> terms;
+	public List<Technology> technologies;
 	public List<Technology> roles;
 	public List<FeatureVector> features;
 
+	/** The cooccurrence relations between technologies. */
+	CooccurrenceTable cooccurrences;
+
+	/** Byte-level index on the terms, created when first needed. */
+	TermIndex termIndex;
+
+	/** The snapshot the taxonomy was loaded from, if any. */
+	TaxonomySnapshot snapshot;
+
+	/** The related terms index, opened when first needed. */
+	TopRelations topRelations;
+
+	/** The index over the hierarchy, see getHierarchyIndex(). */
+	HierarchyIndex hierarchyIndex;
+
+	/** Term relations on predicate, source and target, see getTermRelation(). */
+	Map<String, TermRelation> termRelationIndex;
+
 
 	/**
 	 * Create a new taxonomy. Creates a new directory and initializes the taxonomy,
@@ -105,14 +259,13 @@ public class Taxonomy {
 		checkTaxonomyExistence(taxonomyLocation);
 		File taxonomy = new File(taxonomyLocation);
 		this.name = taxonomy.getName();
+		this.location = taxonomyLocation;
 		this.data = dataLocation;
+		this.appended = new ArrayList<>();
+		this.stale = new LinkedHashSet<>();
 		initializeData();
 		taxonomy.mkdirs();
-		ArrayList<String> lines = new ArrayList<>();
-		lines.add("name = " + this.name);
-		lines.add("data = " + this.data);
-		String pFile = taxonomyLocation + File.separator + PROPERTIES_FILE;
-		TaxonomyWriter.writeProperties(pFile, lines);
+		writeProperties();
 	}
 
 	/**
@@ -120,6 +273,9 @@ public class Taxonomy {
 	 * terms, ACT terms and the hierarchy. Features and the relations
 	 * are not loaded by this constructor.
 	 *
+	 * If the taxonomy has a snapshot that is current the data are read from the
+	 * snapshot instead of from the text files, see writeSnapshot().
+	 *
 	 * @param taxonomyLocation The location of the taxonomy.
 	 * @throws java.io.FileNotFoundException
 	 */
@@ -131,20 +287,52 @@ public class Taxonomy {
 		Properties properties = TaxonomyLoader.loadProperties(pFile);
 		this.name = properties.getProperty("name");
 		this.data = properties.getProperty("data");
+		this.appended = new ArrayList<>();
+		for (int i = 1; properties.getProperty("data." + i) != null; i++)
+			this.appended.add(properties.getProperty("data." + i));
+		this.stale = new LinkedHashSet<>();
+		String staleParts = properties.getProperty("stale", "").trim();
+		if (! staleParts.isEmpty())
+			this.stale.addAll(Arrays.asList(staleParts.split("\\s+")));
 		this.location = taxonomyLocation;
 		loadData();
+		if (! this.stale.isEmpty())
+			Utils.warning("Out of date after appending data: " + String.join(", ", this.stale));
+	}
+
+	/**
+	 * Write the properties file, which has the name of the taxonomy, the data
+	 * directories and the parts of the taxonomy that are stale.
+	 *
+	 * @throws IOException
+	 */
+
+	private void writeProperties() throws IOException
+	{
+		ArrayList<String> lines = new ArrayList<>();
+		lines.add("name = " + this.name);
+		lines.add("data = " + this.data);
+		for (int i = 0; i < this.appended.size(); i++)
+			lines.add(String.format("data.%d = %s", i + 1, this.appended.get(i)));
+		if (! this.stale.isEmpty())
+			lines.add("stale = " + String.join(" ", this.stale));
+		String pFile = this.location + File.separator + PROPERTIES_FILE;
+		TaxonomyWriter.writeProperties(pFile, lines);
 	}
 
 	private void loadData()
-			throws FileNotFoundException
+			throws IOException
 	{
 		initializeData();
+		if (TaxonomySnapshot.isCurrent(this.location)) {
+			System.out.println("Reading snapshot...");
+			this.snapshot = new TaxonomySnapshot(this.location);
+			this.snapshot.load(this);
+			return; }
 		String tFile = this.location + File.separator + TERMS_FILE;
 		String rFile = this.location + File.separator + ROLES_FILE;
 		String hFile = this.location + File.separator + HIERARCHY_FILE;
-		TaxonomyLoader.loadTechnologies(tFile, this);
-		TaxonomyLoader.loadRoles(rFile, this);
-		TaxonomyLoader.loadHierarchy(hFile, this);
+		TaxonomyLoader.loadData(tFile, rFile, hFile, this);
 	}
 
 	/**
@@ -154,8 +342,142 @@ public class Taxonomy {
 	private void initializeData()
 	{
 		this.terms = new HashMap<>();
+		this.technologies = new ArrayList<>();
 		this.roles = new ArrayList<>();
 		this.features = new ArrayList<>();
+		this.cooccurrences = new CooccurrenceTable(this.technologies);
+		this.termRelationIndex = new HashMap<>();
+		this.hierarchyIndex = null;
+	}
+
+	/**
+	 * Add a technology to the taxonomy and give it the next free identifier. If
+	 * there already is a technology with the same name then it is replaced and
+	 * the new technology gets the identifier of the old one.
+	 *
+	 * @param name The name of the technology.
+	 * @param score The technology score.
+	 * @param count The term count.
+	 * @return The new Technology.
+	 */
+
+	Technology addTechnology(String name, float score, int count)
+	{
+		return addTechnology(new Technology(-1, name, score, count));
+	}
+
+	/**
+	 * Add a technology that was created elsewhere, this sets the identifier of
+	 * the technology in the same way as addTechnology(name, score, count).
+	 *
+	 * @param technology The technology to add.
+	 * @return The technology.
+	 */
+
+	Technology addTechnology(Technology technology)
+	{
+		Technology existing = this.terms.get(technology.name);
+		technology.id = existing == null ? this.technologies.size() : existing.id;
+		technology.cooccurrences = this.cooccurrences;
+		if (existing == null)
+			this.technologies.add(technology);
+		else
+			this.technologies.set(technology.id, technology);
+		this.terms.put(technology.name, technology);
+		this.termIndex = null;
+		return technology;
+	}
+
+	/**
+	 * Replace the cooccurrence relations of the taxonomy.
+	 *
+	 * @param table The new cooccurrence table.
+	 */
+
+	void setCooccurrences(CooccurrenceTable table)
+	{
+		this.cooccurrences = table;
+		for (Technology technology : this.technologies)
+			technology.cooccurrences = table;
+	}
+
+	/**
+	 * Return the technology with the given identifier.
+	 *
+	 * @param id
+	 * @return A Technology.
+	 */
+
+	Technology getTechnology(int id)
+	{
+		return this.technologies.get(id);
+	}
+
+	/**
+	 * Return the identifier of a term, or -1 if the term is not a technology
+	 * in the taxonomy.
+	 *
+	 * @param term
+	 * @return The identifier of the term.
+	 */
+
+	int getTermId(String term)
+	{
+		Technology technology = this.terms.get(term);
+		return technology == null ? -1 : technology.id;
+	}
+
+	/**
+	 * Return the index that maps the UTF-8 bytes of terms to their identifiers.
+	 * The index is rebuilt after technologies were added.
+	 *
+	 * @return A TermIndex.
+	 */
+
+	TermIndex getTermIndex()
+	{
+		if (this.termIndex == null)
+			this.termIndex = new TermIndex(this.technologies);
+		return this.termIndex;
+	}
+
+	/**
+	 * Return the term relation with a predicate, source and target, which is
+	 * created and added to its terms if there is none yet.
+	 *
+	 * @return A TermRelation.
+	 */
+
+	TermRelation getTermRelation(String pred, Technology source, Technology target)
+	{
+		String key = source.id + "\t" + target.id + "\t" + pred;
+		TermRelation rel = this.termRelationIndex.get(key);
+		if (rel == null) {
+			rel = new TermRelation(pred, source, target);
+			this.termRelationIndex.put(key, rel);
+			source.addTermRelation(rel);
+			if (target != source)
+				target.addTermRelation(rel); }
+		return rel;
+	}
+
+	/**
+	 * Add an example of a term relation that was read from disk. With a count
+	 * the relation was already counted and sampled and the example is just
+	 * added, without one the example is an occurrence like in addRelations().
+	 *
+	 * @param context The example context.
+	 * @param count The count of the relation, or -1 for one occurrence.
+	 */
+
+	void addTermRelation(Context context, int count)
+	{
+		TermRelation rel = getTermRelation(context.pred, context.source, context.target);
+		if (count < 0) {
+			rel.addOccurrence(context, Math.max(1, TERM_RELATION_EXAMPLES));
+		} else {
+			rel.count = count;
+			rel.contexts.add(context); }
 	}
 
 	/**
@@ -179,15 +501,108 @@ public class Taxonomy {
 	 * because relations are not always needed and they can take a lot of time
 	 * to load.
 	 *
-	 * @throws FileNotFoundException
+	 * @throws IOException
 	 */
 
-	public void loadRelations() throws FileNotFoundException
+	public void loadRelations() throws IOException
+	{
+		loadRelations(true);
+	}
+
+	/**
+	 * Load relations into memory, optionally without the cooccurrence
+	 * relations. Those are not needed for browsing if the taxonomy has a
+	 * related terms index, see getRelatedTerms().
+	 *
+	 * @param cooccurrences Whether to load the cooccurrence relations.
+	 * @throws IOException
+	 */
+
+	public void loadRelations(boolean cooccurrences) throws IOException
 	{
 		String crFile = this.location + File.separator + RELATIONS_FILE;
 		String trFile = this.location + File.separator + TERM_RELATIONS_FILE;
-		TaxonomyLoader.loadCooccurrenceRelations(crFile, this);
-		TaxonomyLoader.loadTermRelations(trFile, this);
+		if (this.snapshot != null) {
+			if (cooccurrences)
+				this.snapshot.loadCooccurrenceRelations(this);
+			this.snapshot.loadTermRelations(this);
+		} else if (cooccurrences) {
+			TaxonomyLoader.loadRelations(crFile, trFile, this);
+		} else {
+			TaxonomyLoader.loadTermRelations(trFile, this); }
+	}
+
+	/**
+	 * Return whether the taxonomy has a related terms index.
+	 */
+
+	public boolean hasTopRelations()
+	{
+		return new File(this.location + File.separator + TOP_RELATIONS_FILE).exists();
+	}
+
+	/**
+	 * Return the related terms of a technology, that is, its cooccurrence
+	 * relations with the highest mutual information, highest first.
+	 *
+	 * These are read from the index written by addRelations(), without loading
+	 * any other relations. Only the first TOP_RELATIONS of each term are in the
+	 * index. If there is no index the relations are taken from those in memory,
+	 * which then need to be loaded with loadRelations().
+	 *
+	 * @param technology The technology.
+	 * @param n The maximum number of relations returned.
+	 * @return A list of cooccurrence relations with the technology as source.
+	 * @throws IOException
+	 */
+
+	public List<CooccurrenceRelation> getRelatedTerms(Technology technology, int n)
+			throws IOException
+	{
+		List<CooccurrenceRelation> relations;
+		if (this.topRelations == null && hasTopRelations())
+			this.topRelations = new TopRelations(
+					new File(this.location + File.separator + TOP_RELATIONS_FILE));
+		if (this.topRelations != null) {
+			relations = this.topRelations.get(technology, this);
+		} else {
+			relations = technology.getCooccurrenceRelations();
+			relations.sort((r1, r2) -> r1.mi != r2.mi
+					? Float.compare(r2.mi, r1.mi)
+					: Integer.compare(r1.target.id, r2.target.id)); }
+		return relations.size() > n ? relations.subList(0, n) : relations;
+	}
+
+	/** Close the related terms index, if it was opened. */
+
+	private void closeTopRelations() throws IOException
+	{
+		if (this.topRelations != null) {
+			this.topRelations.close();
+			this.topRelations = null; }
+	}
+
+	/**
+	 * Write a snapshot of the taxonomy, which makes opening the taxonomy and
+	 * loading its relations a lot faster. This loads the cooccurrence relations
+	 * so it should be used on a taxonomy whose relations were not loaded.
+	 *
+	 * The snapshot goes stale when any of the files it was made from changes,
+	 * after which the taxonomy is read from the text files again until a new
+	 * snapshot is written.
+	 *
+	 * @throws IOException
+	 */
+
+	public void writeSnapshot() throws IOException
+	{
+		if (this.snapshot != null) {
+			this.snapshot.loadCooccurrenceRelations(this);
+		} else {
+			String crFile = this.location + File.separator + RELATIONS_FILE;
+			TaxonomyLoader.loadCooccurrenceRelations(crFile, this); }
+		System.out.println("Writing snapshot...");
+		TaxonomySnapshot.write(this);
 	}
 
 	/**
@@ -228,21 +643,19 @@ public class Taxonomy {
 	}
 
 	/**
-	 * Print the taxonomy's tree. Now the taxonomy is not yet a tree, but a forest
-	 * and this method is rather dumb because it ends up printing mini trees starting
-	 * from each technology (introducing a lot of duplicate fragments). Later it
-	 * will start printing at the top, at least, it will if we have single inheritance.
+	 * Write the hierarchy as a tree, each term once, below its hypernym and
+	 * starting from the terms without one. TREE_DEPTH, TREE_FAN_OUT, TREE_SIZES
+	 * and TREE_JSON set how much is written and how.
 	 *
-	 * This current version is here because I wanted to find a fragment with some
-	 * depth. One of the deepest I found was "greedy block coordinate descent algorithm".
-
-	 * @throws FileNotFoundException
+	 * @param fileName The file to write to.
+	 * @throws IOException
 	 */
 
-	public void printHierarchyTree()
-			throws FileNotFoundException, IOException
+	public void writeHierarchyTree(String fileName)
+			throws IOException
 	{
-		TaxonomyWriter.writeHierarchyTree("hierachyTree.txt", this);
+		int count = TaxonomyWriter.writeHierarchyTree(fileName, this);
+		System.out.println(String.format("Wrote %d terms to %s", count, fileName));
 	}
 
 	/**
@@ -287,22 +700,180 @@ public class Taxonomy {
 		TaxonomyLoader.importRoles(rolesFile, this);
 		TaxonomyLoader.importFeatures(featuresFile, this);
 		//cp.report("importData");
-		TaxonomyWriter.writeTerms(tFile, this.terms);
+		TaxonomyWriter.writeTerms(tFile, this.technologies);
 		TaxonomyWriter.writeRoles(rFile, this.roles);
 		TaxonomyWriter.writeFeatures(fFile, this.features);
 	}
 
+	/**
+	 * Add the data from another corpus to the taxonomy.
+	 *
+	 * The terms files of all data directories, including the new one, are read
+	 * and the counts of each term are added up, its score is the average score
+	 * weighted by the counts. Technologies that are already in the taxonomy keep
+	 * their identifiers and get the new counts and scores, other terms are added
+	 * if their combined counts and scores pass TECHSCORE and MINCOUNT. Roles are
+	 * imported again from all data directories, a technology with roles in more
+	 * than one directory gets the last of them.
+	 *
+	 * Only new feature vectors are added. These are the vectors in the new data
+	 * for all technologies and, if technologies were added, the vectors in the
+	 * earlier data for those technologies. Since the latter are added after all
+	 * other vectors the relations later built from them will miss cooccurrences
+	 * of old and new technologies in the earlier data.
+	 *
+	 * New technologies are added to the hierarchy if it was built and is up to
+	 * date, otherwise it is marked as stale. The relations are not updated, they
+	 * are marked as stale in the properties file until they are built again.
+	 *
+	 * All new vectors are added in one go, if any of the data cannot be read the
+	 * features are left as they were. Once they are added the new data are
+	 * recorded in the properties file, with the hierarchy and relations stale,
+	 * before anything else is written, so the features and the properties
+	 * cannot get out of step.
+	 *
+	 * Data that are already in the taxonomy cannot be added again, since their
+	 * terms would be counted twice.
+	 *
+	 * @param dataLocation The directory with the new data.
+	 * @throws IOException If the data are already in the taxonomy.
+	 */
+
+	public void appendData(String dataLocation)
+			throws IOException
+	{
+		String sep = File.separator;
+		int oldSize = this.technologies.size();
+		List<String> dataLocations = new ArrayList<>();
+		dataLocations.add(this.data);
+		dataLocations.addAll(this.appended);
+		String canonical = new File(dataLocation).getCanonicalPath();
+		for (String location : dataLocations)
+			if (new File(location).getCanonicalPath().equals(canonical))
+				throw new IOException(
+						"Data in " + dataLocation + " were already added to the taxonomy");
+
+		Map<String, TermCounts> counts = new LinkedHashMap<>();
+		for (String location : dataLocations)
+			TaxonomyLoader.readTermCounts(location + sep + INPUT_TERMS, counts);
+		TaxonomyLoader.readTermCounts(dataLocation + sep + INPUT_TERMS, counts);
+		Set<String> added = new HashSet<>();
+		for (TermCounts termCounts : counts.values()) {
+			Technology tech = this.terms.get(termCounts.term);
+			if (tech != null) {
+				tech.count = termCounts.count;
+				tech.score = termCounts.score();
+			} else if (termCounts.score() >= TECHSCORE && termCounts.count >= MINCOUNT) {
+				addTechnology(termCounts.term, termCounts.score(), termCounts.count);
+				added.add(termCounts.term); }
+		}
+		System.out.println(String.format(
+				"Added %d technologies, %d in total", added.size(), this.technologies.size()));
+
+		this.roles = new ArrayList<>();
+		for (Technology tech : this.technologies)
+			tech.role = null;
+		for (String location : dataLocations)
+			TaxonomyLoader.importRoles(location + sep + INPUT_ROLES, this);
+		TaxonomyLoader.importRoles(dataLocation + sep + INPUT_ROLES, this);
+		this.roles = new ArrayList<>(new LinkedHashSet<>(this.roles));
+
+		Map<String, Set<String>> vectors = new LinkedHashMap<>();
+		vectors.put(dataLocation + sep + INPUT_FEATURES, this.terms.keySet());
+		if (! added.isEmpty())
+			for (String location : dataLocations)
+				vectors.put(location + sep + INPUT_FEATURES, added);
+		TaxonomyLoader.appendFeatures(this, vectors);
+
+		File hFile = new File(this.location + sep + HIERARCHY_FILE);
+		boolean hierarchy = ! this.stale.contains(HIERARCHY) && hFile.isFile();
+		this.appended.add(dataLocation);
+		this.stale.add(HIERARCHY);
+		this.stale.add(RELATIONS);
+		writeProperties();
+		TaxonomyWriter.writeTerms(this.location + sep + TERMS_FILE, this.technologies);
+		TaxonomyWriter.writeRoles(this.location + sep + ROLES_FILE, this.roles);
+		if (hierarchy) {
+			addToHierarchy(this.technologies.subList(oldSize, this.technologies.size()));
+			this.stale.remove(HIERARCHY);
+			writeProperties(); }
+	}
+
+
+	/**
+	 * Load the features. They are taken from the feature store if there is
+	 * one and from the tab-separated features file otherwise.
+	 *
+	 * @throws IOException
+	 */
+
+	public void loadFeatures() throws IOException
+	{
+		String sFile = this.location + File.separator + FEATURE_STORE;
+		String vFile = this.location + File.separator + FEATURES_FILE;
+		if (new File(sFile).isFile())
+			TaxonomyLoader.loadFeatureStore(sFile, this);
+		else
+			TaxonomyLoader.loadFeatures(vFile, this);
+	}
+
+	/**
+	 * Open a stream over the feature vectors. Unlike loadFeatures() this does
+	 * not keep the vectors in memory. The stream should be closed after use.
+	 *
+	 * @return A FeatureStream
+	 * @throws IOException
+	 */
+
+	public FeatureStream openFeatures() throws IOException
+	{
+		return new FeatureStream(this, false);
+	}
+
+	/**
+	 * Open a stream over the feature vectors that returns the same vector
+	 * instance each time, see FeatureStream.
+	 *
+	 * @param reuse Whether to reuse the vector.
+	 * @return A FeatureStream
+	 * @throws IOException
+	 */
+
+	public FeatureStream openFeatures(boolean reuse) throws IOException
+	{
+		return new FeatureStream(this, reuse);
+	}
+
+	/**
+	 * Write the vectors in the feature store to the tab-separated features file
+	 * and remove the feature store, which would otherwise be read instead.
+	 *
+	 * @throws IOException
+	 */
+
+	public void featuresToText() throws IOException
+	{
+		String sFile = this.location + File.separator + FEATURE_STORE;
+		String vFile = this.location + File.separator + FEATURES_FILE;
+		long count = FeatureStore.toText(sFile, vFile);
+		new File(sFile).delete();
+		System.out.println(String.format("Wrote %d vectors to %s", count, vFile));
+	}
 
 	/**
-	 * Load the features.
+	 * Write the vectors in the tab-separated features file to the feature store
+	 * and remove the features file, so that the two cannot go out of step.
 	 *
-	 * @throws FileNotFoundException
+	 * @throws IOException
 	 */
 
-	public void loadFeatures() throws FileNotFoundException
+	public void featuresToBinary() throws IOException
 	{
+		String sFile = this.location + File.separator + FEATURE_STORE;
 		String vFile = this.location + File.separator + FEATURES_FILE;
-		TaxonomyLoader.loadFeatures(vFile, this);
+		long count = FeatureStore.fromText(vFile, sFile);
+		new File(vFile).delete();
+		System.out.println(String.format("Wrote %d vectors to %s", count, sFile));
 	}
 
 	/**
@@ -316,85 +887,545 @@ public class Taxonomy {
 
 	public void rhhr() throws IOException
 	{
-		Node top = new Node("Top");
-		int c = 0;
-		// The way this works is by creating a tree where nodes are inserted
-		// depending on the tokens in the term. The top node Node("Top") has no
-		// tokens, a node Node("door") would be added as a direct child of Top
-		// and a node Node("iron door") would be added as an immediate child of
-		// Node("door"). Nodes can be associated with an instance of Technology.
-		for (Technology tech : this.terms.values()) {
-			c++;
-			//if (c > 100) break;
-			//System.out.println("\n" + tech.name);
-			String[] tokens = tech.name.split(" ");
-			top.insert(tech, tokens, tokens.length);
-		}
-		//top.prettyPrint();
-		top.addIsaRelations(null);
-		System.out.println(String.format("Created %d isa relations", IsaRelation.count));
+		// start from scratch if the taxonomy already had a hierarchy
+		for (Technology tech : this.technologies) {
+			tech.isaRelations.clear();
+			tech.hypernyms.clear();
+			tech.hyponyms.clear(); }
+		// The hypernym of a term is the longest other term it ends in, found
+		// in a trie over the tokens of the terms read from right to left, see
+		// HeadTrie. A term "iron door" is below "door", which is below the top.
+		// Relations are added in the order of the terms, whatever the number
+		// of threads.
+		String[] names = new String[this.technologies.size()];
+		for (Technology tech : this.technologies)
+			names[tech.id] = tech.name;
+		int[] hypernyms = HeadTrie.hypernyms(names, HIERARCHY_THREADS);
+		int count = 0;
+		for (Technology tech : this.technologies) {
+			if (hypernyms[tech.id] < 0)
+				continue;
+			Technology hypernym = this.technologies.get(hypernyms[tech.id]);
+			tech.isaRelations.add(new IsaRelation(IsaRelation.RHHR, tech, hypernym));
+			tech.hypernyms.add(hypernym);
+			hypernym.hyponyms.add(tech);
+			count++; }
+		System.out.println(String.format("Created %d isa relations", count));
 		File hFile = new File(this.location + File.separator + HIERARCHY_FILE);
 		TaxonomyWriter.writeHierarchy(hFile, this);
+		writeHierarchyIndex(hFile);
+		if (this.stale.remove(HIERARCHY))
+			writeProperties();
+	}
+
+	/**
+	 * Add new technologies to the hierarchy built by rhhr() without building it
+	 * again. Each term gets the longest other term it ends in as its hypernym.
+	 * Existing terms that end in the new term and had a shorter hypernym, or
+	 * none, are moved below the new term, so adding "block coordinate descent"
+	 * puts it between "descent" and "greedy block coordinate descent". The
+	 * existing terms are looked up once by the new terms they end in.
+	 *
+	 * New terms are added shortest first, counted in tokens. The hypernym of a
+	 * term is then in place before the term is added, and a term only moves
+	 * below a new term if that is longer than its hypernym so far. New terms
+	 * never move, since the terms they end in are added before them. The
+	 * result is the same as that of rhhr(), including the order of the
+	 * hyponyms, see Benchmark.benchmarkAppendHierarchy().
+	 *
+	 * The new technologies must already be in the taxonomy. When only new terms
+	 * changed their entries are appended to the hierarchy file, otherwise the
+	 * file is written again from memory.
+	 *
+	 * @param added The new technologies, in the order of their identifiers.
+	 * @return The number of terms whose hypernym was set or changed.
+	 * @throws IOException
+	 */
+
+	public int addToHierarchy(List<Technology> added) throws IOException
+	{
+		if (added.isEmpty())
+			return 0;
+		int first = added.get(0).id;
+		Map<String, List<Technology>> endingIn = termsEndingIn(added, first);
+		Set<Technology> changed = new LinkedHashSet<>();
+		boolean moved = false;
+		List<Technology> ordered = new ArrayList<>(added);
+		ordered.sort(Comparator.comparingInt(tech -> tokenCount(tech.name)));
+		for (Technology tech : ordered) {
+			if (tech.name.endsWith(" ")) {
+				Utils.warning("WARNING: term '" + tech.name + "' could not be inserted");
+				continue; }
+			Technology hypernym = hypernymByName(tech.name);
+			for (Technology hyponym : endingIn.getOrDefault(tech.name, Collections.emptyList())) {
+				// only the terms that had the hypernym of the new term move below it
+				Technology current = hyponym.hypernyms.isEmpty() ? null : hyponym.hypernyms.get(0);
+				if (current != hypernym)
+					continue;
+				if (hypernym != null) {
+					removeById(hypernym.hyponyms, hyponym);
+					hyponym.isaRelations.removeIf(isa -> isa.target == hypernym);
+					hyponym.hypernyms.remove(hypernym); }
+				setHypernym(hyponym, tech);
+				changed.add(hyponym);
+				moved = true; }
+			if (hypernym != null) {
+				setHypernym(tech, hypernym);
+				changed.add(tech); }
+		}
+		System.out.println(String.format("Added %d terms to the hierarchy, %d isa relations set or changed",
+				added.size(), changed.size()));
+		File hFile = new File(this.location + File.separator + HIERARCHY_FILE);
+		if (moved)
+			TaxonomyWriter.writeHierarchy(hFile, this);
+		else
+			TaxonomyWriter.appendHierarchy(hFile, added);
+		writeHierarchyIndex(hFile);
+		return changed.size();
+	}
+
+	private void writeHierarchyIndex(File hierarchyFile) throws IOException
+	{
+		this.hierarchyIndex = HierarchyIndex.build(this.technologies);
+		this.hierarchyIndex.write(
+				new File(this.location + File.separator + HIERARCHY_INDEX_FILE), hierarchyFile);
+	}
+
+	/**
+	 * Return the index over the hierarchy. It is read from the index file if
+	 * that was written for the current hierarchy file and built from the
+	 * hypernyms and hyponyms of the technologies otherwise.
+	 *
+	 * @return The index.
+	 * @throws IOException
+	 */
+
+	public HierarchyIndex getHierarchyIndex() throws IOException
+	{
+		if (this.hierarchyIndex == null || this.hierarchyIndex.termCount != this.technologies.size()) {
+			this.hierarchyIndex = HierarchyIndex.read(
+					new File(this.location + File.separator + HIERARCHY_INDEX_FILE),
+					new File(this.location + File.separator + HIERARCHY_FILE),
+					this.technologies.size());
+			if (this.hierarchyIndex == null)
+				this.hierarchyIndex = HierarchyIndex.build(this.technologies); }
+		return this.hierarchyIndex;
+	}
+
+	/**
+	 * Return whether a technology is below another in the hierarchy.
+	 */
+
+	public boolean isA(Technology tech, Technology ancestor) throws IOException
+	{
+		return tech != ancestor && getHierarchyIndex().isAncestor(ancestor.id, tech.id);
+	}
+
+	/**
+	 * Return the number of technologies below a technology in the hierarchy.
+	 */
+
+	public int hyponymCount(Technology tech) throws IOException
+	{
+		return getHierarchyIndex().subtreeSize(tech.id) - 1;
+	}
+
+	/**
+	 * Return the lowest technology that two technologies are both below or one
+	 * of them, or null if they are in different trees.
+	 */
+
+	public Technology commonAncestor(Technology tech1, Technology tech2) throws IOException
+	{
+		int ancestor = getHierarchyIndex().lowestCommonAncestor(tech1.id, tech2.id);
+		return ancestor < 0 ? null : getTechnology(ancestor);
+	}
+
+	/**
+	 * Return the technology with the longest name that a name ends in, after
+	 * removing whole tokens from the front, or null.
+	 */
+
+	private Technology hypernymByName(String name)
+	{
+		for (int i = name.indexOf(' '); i >= 0; i = name.indexOf(' ', i + 1)) {
+			Technology tech = this.terms.get(name.substring(i + 1));
+			if (tech != null)
+				return tech; }
+		return null;
+	}
+
+	private static int tokenCount(String name)
+	{
+		int count = 1;
+		for (int i = name.indexOf(' '); i >= 0; i = name.indexOf(' ', i + 1))
+			count++;
+		return count;
+	}
+
+	private static void setHypernym(Technology tech, Technology hypernym)
+	{
+		tech.isaRelations.add(new IsaRelation(IsaRelation.RHHR, tech, hypernym));
+		tech.hypernyms.add(hypernym);
+		insertById(hypernym.hyponyms, tech);
+	}
+
+	/**
+	 * Insert a technology in a list that is ordered on identifier.
+	 */
+
+	private static void insertById(List<Technology> technologies, Technology tech)
+	{
+		int i = technologies.size();
+		while (i > 0 && technologies.get(i - 1).id > tech.id)
+			i--;
+		technologies.add(i, tech);
+	}
+
+	/**
+	 * Remove a technology from a list that is ordered on identifier.
+	 */
+
+	private static void removeById(List<Technology> technologies, Technology tech)
+	{
+		int i = Collections.binarySearch(
+				technologies, tech, Comparator.comparingInt(t -> t.id));
+		if (i >= 0)
+			technologies.remove(i);
+	}
+
+	/**
+	 * Return the technologies before the first one that is being added, listed
+	 * under the names of the added technologies that they end in, after removing
+	 * whole tokens from the front.
+	 */
+
+	private Map<String, List<Technology>> termsEndingIn(List<Technology> added, int first)
+	{
+		Set<String> names = new HashSet<>();
+		for (Technology tech : added)
+			names.add(tech.name);
+		Map<String, List<Technology>> endingIn = new HashMap<>();
+		for (Technology tech : this.technologies.subList(0, first)) {
+			String name = tech.name;
+			for (int i = name.indexOf(' '); i >= 0; i = name.indexOf(' ', i + 1)) {
+				String suffix = name.substring(i + 1);
+				if (names.contains(suffix))
+					endingIn.computeIfAbsent(suffix, k -> new ArrayList<>()).add(tech); }
+		}
+		return endingIn;
 	}
 
 	/**
 	 * Add relations to terms in the ontology. Creates a sliding window
 	 * over the terms and stipulate that there is a cooccurrence relation if terms
-	 * cooccur in that window.
+	 * cooccur in that window. The window has WINDOW_SIZE terms and does not
+	 * cross documents or, if WINDOW_SENTENCES is set, that many sentences.
+	 *
+	 * The feature vectors are streamed from disk and never all loaded into
+	 * memory, so memory use depends on the number of relations found and not on
+	 * the size of the corpus. The stream reuses one vector and the window keeps
+	 * copies, so there is no allocation per vector.
+	 *
+	 * With more than one of RELATION_THREADS the vectors are processed in
+	 * parallel, see addRelationsInParallel(). With RELATION_MEMORY set the
+	 * cooccurrences are counted on disk, see addRelationsFromRuns(). The results
+	 * are the same. With APPROXIMATE_MEMORY set the counts are approximate and
+	 * only the most frequent neighbours of each term are kept.
+	 *
+	 * While mutual information is calculated the TOP_RELATIONS relations with
+	 * the highest mutual information of each term are collected and written to
+	 * an index, see getRelatedTerms(). If the counts are in memory and exact
+	 * the association scores are written as well, see scoreRelations(), with
+	 * the counts of terms over all pairs, also those removed by
+	 * FILTER_RELATIONS. Otherwise the scores of an earlier run are removed
+	 * since they would not match.
+	 *
+	 * Term relations are extracted in a separate stage that runs next to the
+	 * counting, see TermRelationStage. Counting cooccurrences and extracting
+	 * term relations can each be switched off with COOCCURRENCES and
+	 * TERM_RELATIONS, the files of the part that is switched off are left as
+	 * they are.
 	 *
 	 * This code will be put in its own class.
 	 */
 
 	void addRelations() throws IOException
 	{
-		int relationCount = 0;
-		int termRelationCount = 0;
 		System.out.println();
-		CooccurrenceWindow window = new CooccurrenceWindow();
-		int c = 0;
-		for (FeatureVector vector : this.features) {
-			c++;
-			//if (c > 1000) break;
-			window.update(vector);
-			// TODO: This only works as expected because the window only has two
-			// TODO: ... terms in it, we will get duplication when that changes
-			for (String[] p : window.cooccurrencePairs()) {
-				//System.out.println("  " + p[0] + " - " + p[1]);
-				Technology t1 = this.terms.get(p[0]);
-				Technology t2 = this.terms.get(p[1]);
-				relationCount++;
-				// These are stored on both source and target terms
-				// (as opposed to isa relations, which go only one way)
-				t1.addCooccurrenceRelation(t2);
-				t2.addCooccurrenceRelation(t1);
-				ArrayList<FeatureVector> vectors = window.firstTwoVectors();
-				String pred = predicateFromVectorMerge(vectors);
-				if (pred != null) {
-					termRelationCount++;
-					String doc = vectors.get(0).fileName;
-					TermRelation rel = new TermRelation(doc, pred, t1, t2, vectors);
-					//System.out.println(rel);
-					//System.out.println("   " + rel.document);
-					//System.out.print("   ");
-					//rel.context.pp();
-					//System.out.println();
-					t1.addTermRelation(rel);
-					t2.addTermRelation(rel);
-				}
-			}
-		}
-		// TODO: the first two counts make no sense (more types than tokens)
-		System.out.println(String.format(
-				"Occurence relations created (tokens) %,12d", relationCount));
-		System.out.println(String.format(
-				"Occurence relations created (types)  %,12d", countRelations()));
-		System.out.println(String.format(
-				"Term relations created               %,12d", termRelationCount));
+		if (! COOCCURRENCES && ! TERM_RELATIONS) {
+			System.out.println("Cooccurrences and term relations are both switched off");
+			return; }
+		CooccurrenceRuns runs = null;
+		ApproximateCounter approximate = null;
+		if (COOCCURRENCES && APPROXIMATE_MEMORY > 0)
+			approximate = new ApproximateCounter(
+					this.technologies.size(), APPROXIMATE_MEMORY, APPROXIMATE_CANDIDATES,
+					APPROXIMATE_CHECK ? new CooccurrenceTable(this.technologies) : null);
+		else if (COOCCURRENCES && RELATION_MEMORY > 0)
+			runs = new CooccurrenceRuns(new File(this.location), "pairs",
+					CooccurrenceRuns.bufferSize(RELATION_MEMORY, RELATION_THREADS));
 		File rFile = new File(this.location + File.separator + RELATIONS_FILE);
 		File trFile = new File(this.location + File.separator + TERM_RELATIONS_FILE);
-		calculateMutualInformation();
-		TaxonomyWriter.writeCooccurrenceRelations(rFile, this);
-		TaxonomyWriter.writeTermRelations(trFile, this);
+		File topFile = new File(this.location + File.separator + TOP_RELATIONS_FILE);
+		TopRelationsBuilder top = COOCCURRENCES
+				? new TopRelationsBuilder(this.technologies.size(), TOP_RELATIONS) : null;
+		int relationTypes = 0;
+		RelationShard result;
+		TermRelationStage stage = TERM_RELATIONS ? new TermRelationStage(this, TERM_RELATION_QUEUE) : null;
+		try {
+			if (stage != null)
+				stage.start();
+			result = RELATION_THREADS > 1
+					? addRelationsInParallel(runs, approximate, stage)
+					: addRelationsSequentially(runs, approximate, stage);
+			File sFile = new File(this.location + File.separator + SCORES_FILE);
+			if (runs != null) {
+				relationTypes = addRelationsFromRuns(runs, rFile, top);
+				sFile.delete();
+			} else if (COOCCURRENCES) {
+				if (approximate != null) {
+					approximate.addTo(this.cooccurrences);
+					approximate.report(this.cooccurrences, result.relationCount, 3); }
+				long[] marginals = null;
+				if (FILTER_RELATIONS) {
+					marginals = AssociationScores.marginals(this.cooccurrences, this.technologies.size());
+					filterRelations(); }
+				relationTypes = countRelations();
+				calculateMutualInformation(top);
+				TaxonomyWriter.writeCooccurrenceRelations(rFile, this);
+				if (approximate == null)
+					writeScores(marginals);
+				else
+					sFile.delete(); }
+			// the stage may still be busy while the cooccurrences are written
+			if (stage != null)
+				stage.finish();
+		} finally {
+			if (stage != null)
+				stage.close();
+			if (runs != null)
+				runs.delete(); }
+		if (COOCCURRENCES) {
+			closeTopRelations();
+			top.write(topFile);
+			System.out.println(String.format(
+					"Occurence relations created (tokens) %,12d", result.relationCount));
+			System.out.println(String.format(
+					"Occurence relations created (types)  %,12d", relationTypes)); }
+		if (stage != null) {
+			System.out.println(String.format(
+					"Term relation candidates             %,12d", stage.candidateCount));
+			System.out.println(String.format(
+					"Term relations created (tokens)      %,12d", stage.relationCount));
+			System.out.println(String.format(
+					"Term relations created (types)       %,12d", this.termRelationIndex.size()));
+			TaxonomyWriter.writeTermRelations(trFile, this); }
+		if (COOCCURRENCES && TERM_RELATIONS && this.stale.remove(RELATIONS))
+			writeProperties();
+	}
+
+	private RelationShard addRelationsSequentially(
+			CooccurrenceRuns runs, ApproximateCounter approximate, TermRelationStage stage)
+			throws IOException
+	{
+		RelationShard shard = new RelationShard(stage != null);
+		CooccurrenceWindow window = new CooccurrenceWindow(WINDOW_SIZE, WINDOW_SENTENCES);
+		PairCounter counter = ! COOCCURRENCES ? null
+				: approximate != null ? approximate
+				: runs != null ? runs.newBuffer() : this.cooccurrences;
+		try (FeatureStream stream = openFeatures(true)) {
+			while (stream.hasNext()) {
+				FeatureVector vector = stream.next();
+				if (vector.termId < 0) continue;
+				addRelations(vector, window, counter, shard);
+				// before the window reuses its vectors
+				if (stage != null)
+					stage.addAll(shard.candidates); }
+		}
+		return shard;
+	}
+
+	/**
+	 * Add relations on RELATION_THREADS threads.
+	 *
+	 * The vectors are read on the calling thread and cut into shards of about
+	 * RELATION_SHARD_SIZE vectors, a shard ends where a document ends. Shards
+	 * are processed on a fork-join pool, each with its own window, which gives
+	 * the same pairs as a single window since windows do not cross documents.
+	 * Cooccurrences are counted in a table per
+	 * thread and the tables are merged at the end, or, if runs are given, in a
+	 * buffer per thread that spills into the runs. An approximate counter is
+	 * shared by all threads. Candidate term relations are handed to the term
+	 * relation stage shard by shard in the order of the shards, which is the
+	 * order they would have been handed over in by a single pass.
+	 *
+	 * At most twice as many shards as there are threads are waiting or being
+	 * processed at any time, so the reader does not run ahead of the workers.
+	 */
+
+	private RelationShard addRelationsInParallel(
+			CooccurrenceRuns runs, ApproximateCounter approximate, TermRelationStage stage)
+			throws IOException
+	{
+		RelationShard total = new RelationShard(false);
+		List<CooccurrenceTable> tables = Collections.synchronizedList(new ArrayList<>());
+		ThreadLocal<PairCounter> threadTable = ThreadLocal.withInitial(() -> {
+			if (! COOCCURRENCES)
+				return null;
+			if (approximate != null)
+				return approximate;
+			if (runs != null)
+				return runs.newBuffer();
+			CooccurrenceTable table = new CooccurrenceTable(this.technologies);
+			tables.add(table);
+			return table; });
+		Deque<Future<RelationShard>> pending = new ArrayDeque<>();
+		ForkJoinPool pool = new ForkJoinPool(RELATION_THREADS);
+		try (FeatureStream stream = openFeatures(true)) {
+			RelationShard shard = new RelationShard(stage != null);
+			LazyFeatureVector previous = null;
+			while (stream.hasNext()) {
+				FeatureVector vector = stream.next();
+				if (vector.termId < 0) continue;
+				LazyFeatureVector copy = new LazyFeatureVector();
+				copy.setFrom((LazyFeatureVector) vector);
+				if (shard.vectors.size() >= RELATION_SHARD_SIZE
+						&& ! copy.getFileName().equals(previous.getFileName())) {
+					pending.add(pool.submit(shardTask(shard, threadTable)));
+					if (pending.size() > 2 * RELATION_THREADS)
+						addShard(pending.remove(), total, stage);
+					shard = new RelationShard(stage != null); }
+				shard.vectors.add(copy);
+				previous = copy; }
+			pending.add(pool.submit(shardTask(shard, threadTable)));
+			while (! pending.isEmpty())
+				addShard(pending.remove(), total, stage);
+		} finally {
+			pool.shutdownNow(); }
+		for (CooccurrenceTable table : tables)
+			this.cooccurrences.addAll(table);
+		return total;
+	}
+
+	private Callable<RelationShard> shardTask(
+			RelationShard shard, ThreadLocal<PairCounter> threadTable)
+	{
+		return () -> {
+			PairCounter table = threadTable.get();
+			CooccurrenceWindow window = new CooccurrenceWindow(WINDOW_SIZE, WINDOW_SENTENCES);
+			for (FeatureVector vector : shard.vectors)
+				addRelations(vector, window, table, shard);
+			shard.vectors = null;
+			return shard; };
+	}
+
+	/**
+	 * Wait for a shard and add its results.
+	 */
+
+	private void addShard(
+			Future<RelationShard> future, RelationShard total, TermRelationStage stage)
+			throws IOException
+	{
+		RelationShard shard;
+		try {
+			shard = future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			throw new IOException(ex.getCause()); }
+		total.relationCount += shard.relationCount;
+		if (stage != null)
+			stage.addAll(shard.candidates);
+	}
+
+	/**
+	 * Add a vector to the window, count the cooccurrences it creates and
+	 * collect the pairs that could be term relations in the shard. The table
+	 * is null if cooccurrences are not counted.
+	 */
+
+	private void addRelations(
+			FeatureVector vector, CooccurrenceWindow window,
+			PairCounter table, RelationShard shard)
+	{
+		window.update(vector);
+		FeatureVector v2 = window.last();
+		for (int i = 0; i < window.pairCount(); i++) {
+			FeatureVector v1 = window.pairVector(i);
+			Technology t1 = this.technologies.get(v1.termId);
+			Technology t2 = this.technologies.get(v2.termId);
+			shard.relationCount++;
+			// These are shared by source and target terms
+			// (as opposed to isa relations, which go only one way)
+			if (table != null)
+				table.count(t1.id, t2.id);
+			if (shard.candidates != null && v1.potentiallyRelatedTo(v2))
+				shard.candidates.add(new FeatureVector[] { v1, v2 });
+		}
+	}
+
+	/**
+	 * Filter, calculate mutual information and write the cooccurrence relations
+	 * that were counted on disk. This is done in streaming passes over the
+	 * merged runs, which are sorted on pair, so memory use does not depend on
+	 * the number of pairs either:
+	 *
+	 * 1. if relations are filtered, count the pairs of each term,
+	 * 2. filter and write each pair twice, once for each direction, to a new
+	 *    set of runs, which sorts them on the first term of each direction,
+	 * 3. write the relations of each term from the merged directed runs, with
+	 *    mutual information calculated on the way.
+	 *
+	 * The file is the same as when the relations are counted in memory. The
+	 * relations are not kept in the taxonomy, but the related terms of each
+	 * term are collected in the last pass.
+	 *
+	 * @return The number of pairs written.
+	 */
+
+	private int addRelationsFromRuns(
+			CooccurrenceRuns runs, File rFile, TopRelationsBuilder top)
+			throws IOException
+	{
+		int[] degrees = null;
+		if (FILTER_RELATIONS) {
+			degrees = new int[this.technologies.size()];
+			try (RunMerger pairs = runs.merge()) {
+				while (pairs.next()) {
+					degrees[CooccurrenceTable.first(pairs.key())]++;
+					degrees[CooccurrenceTable.second(pairs.key())]++; }
+			}
+		}
+		int types = 0;
+		CooccurrenceRuns directed = new CooccurrenceRuns(
+				new File(this.location), "directed", CooccurrenceRuns.bufferSize(RELATION_MEMORY, 1));
+		try {
+			try (RunMerger pairs = runs.merge()) {
+				// created after the merge released the buffers of the runs
+				PairBuffer buffer = directed.newBuffer();
+				while (pairs.next()) {
+					long key = pairs.key();
+					int count = pairs.count();
+					if (degrees != null && ! CooccurrenceTable.keep(key, count, degrees, 25, 3))
+						continue;
+					long t1 = CooccurrenceTable.first(key);
+					long t2 = CooccurrenceTable.second(key);
+					buffer.add((t1 << 32) | t2, count);
+					buffer.add((t2 << 32) | t1, count);
+					types++; }
+			}
+			// the first runs are no longer needed, free the disk space
+			runs.delete();
+			try (RunMerger relations = directed.merge()) {
+				TaxonomyWriter.writeCooccurrenceRelations(rFile, this, relations, top); }
+		} finally {
+			directed.delete(); }
+		return types;
 	}
 
 	/**
@@ -420,26 +1451,26 @@ public class Taxonomy {
 			// NOTE: a technology might occur multiple times in a document
 			// TODO: should probably group the vectors and not the terms
 			groupedTechnologies
-					.putIfAbsent(vector.fileName, new ArrayList<>());
+					.putIfAbsent(vector.getFileName(), new ArrayList<>());
 			groupedTechnologies
-					.get(vector.fileName)
-					.add(this.terms.get(vector.term));
+					.get(vector.getFileName())
+					.add(this.technologies.get(vector.termId));
 		}
 		return groupedTechnologies;
 	}
 
+	/**
+	 * Remove infrequent relations of terms that have many relations.
+	 */
+
 	private void filterRelations()
 	{
-		for (Technology technology : this.terms.values()) {
-			technology.filterRelations(); }
+		this.cooccurrences.filter(25, 3);
 	}
 
 	private int countRelations()
 	{
-		int count = 0;
-		for (Technology technology : this.terms.values())
-			count += technology.relations.size();
-		return count;
+		return this.cooccurrences.size();
 	}
 
 	/**
@@ -456,73 +1487,96 @@ public class Taxonomy {
 		TaxonomyWriter.writeTermRelationsAsTable(this, TERM_RELATIONS_FILE);
 	}
 
-	private void calculateMutualInformation()
+	/**
+	 * Calculate association scores for all cooccurrence pairs and write them
+	 * to SCORES_FILE, see AssociationScores. The cooccurrence relations are
+	 * loaded if they are not in memory yet, this does not need the features.
+	 * Only the pairs in the relations file are used, so if the relations were
+	 * filtered or approximate the counts of the terms are over the pairs that
+	 * were kept.
+	 *
+	 * @throws IOException
+	 */
+
+	public void scoreRelations() throws IOException
+	{
+		if (this.cooccurrences.size() == 0) {
+			if (this.snapshot != null)
+				this.snapshot.loadCooccurrenceRelations(this);
+			else
+				TaxonomyLoader.loadCooccurrenceRelations(
+						this.location + File.separator + RELATIONS_FILE, this); }
+		writeScores(null);
+	}
+
+	private void writeScores(long[] marginals) throws IOException
+	{
+		CheckPoint checkpoint = new CheckPoint(true);
+		AssociationScores scores = AssociationScores.fromTable(
+				this.cooccurrences, this.technologies.size(), marginals);
+		scores.score(RELATION_THREADS);
+		scores.write(new File(this.location + File.separator + SCORES_FILE));
+		checkpoint.report(String.format("Scored %,d cooccurrence pairs", scores.size));
+	}
+
+	/**
+	 * Calculate mutual information for all pairs and offer each pair to the
+	 * related terms of both its terms.
+	 */
+
+	private void calculateMutualInformation(TopRelationsBuilder top)
 	{
 		int n = this.terms.size();
 		boolean debug = false;
 		int c = 0;
-		for (Technology t1 : this.terms.values()) {
+		CooccurrenceTable table = this.cooccurrences;
+		for (int slot = 0; slot < table.capacity(); slot++) {
+			if (! table.isUsed(slot))
+				continue;
 			c++;
+			long key = table.keyAt(slot);
+			Technology t1 = this.technologies.get(CooccurrenceTable.first(key));
+			Technology t2 = this.technologies.get(CooccurrenceTable.second(key));
+			int count = table.countAt(slot);
+			float mi = mutualInformation(n, t1, t2, count);
+			table.setMi(slot, mi);
+			top.offer(t1.id, t2.id, count, mi);
+			top.offer(t2.id, t1.id, count, mi);
 			if (debug && c < 10) {
-				System.out.println();
-				System.out.println(t1); }
-			int c2 = 0;
-			for (String t2_name : t1.relations.keySet()) {
-				c2++;
-				Technology t2 = this.terms.get(t2_name);
-				CooccurrenceRelation rel = t1.relations.get(t2_name);
-				float mi = mutualInformation(n, t1, t2, rel);
-				rel.mi = mi;
-				if (debug && c < 10) {
-					System.out.println(
-					String.format(
-							"   %f %d %d %d %s",
-							mi, rel.count, t1.count, t2.count, t2.name));
-				}
+				System.out.println(
+				String.format(
+						"   %f %d %d %d %s %s",
+						mi, count, t1.count, t2.count, t1.name, t2.name));
 			}
 		}
 	}
 
-	private float mutualInformation(int n, Technology t1, Technology t2, CooccurrenceRelation rel)
+	float mutualInformation(int n, Technology t1, Technology t2, int count)
 	{
-		float p_x_y = rel.count * 2 / (float) n;
+		float p_x_y = count * 2 / (float) n;
 		float p_x = t1.count / (float) n;
 		float p_y = t2.count / (float) n;
 		return (float) log(p_x_y / (p_x * p_y));
 	}
 
-	/**
-	 * Return the name of the predicate if two vectors can be merged.
-	 *
-	 * Two vectors can merge if they occur in the same sentence and the first term
-	 * vector has the same verb in its next_V field as the second has in its prev_V
-	 * field. At least, that is the theory, in practice we do not have a next_V field
-	 * so we fake it by looking at sentence positions.
-	 *
-	 * @param vectors
-	 * @return the name of the predicate or null
-	 */
+}
 
-	private String predicateFromVectorMerge(ArrayList<FeatureVector> vectors)
-	{
-		FeatureVector v1 = vectors.get(0);
-		FeatureVector v2 = vectors.get(1);
-		if (v1.potentiallyRelatedTo(v2)) {
-			int pos1 = end_pos(v1.featuresIdx.get("sent_loc"));
-			int pos2 = start_pos(v2.featuresIdx.get("sent_loc"));
-			if ((pos2 - pos1) < 6)
-				return v2.featuresIdx.get("prev_V"); }
-		return null;
-	}
 
-	private int start_pos(String loc)
-	{
-		return Integer.parseInt(loc.split("-")[0]);
-	}
+/**
+ * A run of feature vectors for relation extraction and what was found in it.
+ */
+
+class RelationShard {
 
-	private int end_pos(String loc)
+	List<FeatureVector> vectors = new ArrayList<>();
+	int relationCount;
+
+	/** Pairs of vectors for the term relation stage, null if there is none. */
+	List<FeatureVector[]> candidates;
+
+	RelationShard(boolean termRelations)
 	{
-		return Integer.parseInt(loc.split("-")[1]);
+		if (termRelations)
+			this.candidates = new ArrayList<>();
 	}
-
 }
@@ -4,8 +4,9 @@ import static edu.brandeis.tgist.taxonomy.Utils.BLUE;
 import static edu.brandeis.tgist.taxonomy.Utils.END;
 import static edu.brandeis.tgist.taxonomy.Utils.RED;
 import static edu.brandeis.tgist.taxonomy.Utils.blue;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,6 +15,8 @@ public class TaxonomyApp {
 
 	public static void main(String[] args) {
 
+		args = parseOptions(args);
+
 		if (args.length == 1 && args[0].equals("--help"))
 			printUsage();
 		else if (args.length == 3 && args[0].equals("--create"))
@@ -22,10 +25,22 @@ public class TaxonomyApp {
 			initialize(args[1], args[2]);
 		else if (args.length == 2 && args[0].equals("--import"))
 			importData(args[1]);
+		else if (args.length == 3 && args[0].equals("--append"))
+			appendData(args[1], args[2]);
 		else if (args.length == 2 && args[0].equals("--build-hierarchy"))
 			buildHierarchy(args[1]);
 		else if (args.length == 2 && args[0].equals("--add-relations"))
 			addRelations(args[1]);
+		else if (args.length == 2 && args[0].equals("--features-to-text"))
+			convertFeatures(args[1], true);
+		else if (args.length == 2 && args[0].equals("--features-to-binary"))
+			convertFeatures(args[1], false);
+		else if (args.length == 2 && args[0].equals("--score-relations"))
+			scoreRelations(args[1]);
+		else if (args.length == 2 && args[0].equals("--snapshot"))
+			snapshot(args[1]);
+		else if (args.length == 3 && args[0].equals("--write-tree"))
+			writeTree(args[1], args[2]);
 		else if (args.length == 2  && args[0].equals("--browse"))
 			userLoop(args[1]);
 		else
@@ -63,6 +78,57 @@ public class TaxonomyApp {
 		if (runLoop) userLoop(taxonomy);
 	}
 
+	/**
+	 * Take the options out of the argument list and use them to set the
+	 * corresponding settings on Taxonomy. Options can be given anywhere on the
+	 * command line.
+	 *
+	 * @param args The command line arguments.
+	 * @return The arguments that are not options.
+	 */
+
+	private static String[] parseOptions(String[] args)
+	{
+		List<String> remaining = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--threads") && i + 1 < args.length)
+				Taxonomy.IMPORT_THREADS = Taxonomy.LOAD_THREADS = Taxonomy.RELATION_THREADS =
+						Taxonomy.HIERARCHY_THREADS = Integer.parseInt(args[++i]);
+			else if (arg.equals("--batch-size") && i + 1 < args.length)
+				Taxonomy.IMPORT_BATCH_SIZE = Integer.parseInt(args[++i]);
+			else if (arg.equals("--window") && i + 1 < args.length)
+				Taxonomy.WINDOW_SIZE = Integer.parseInt(args[++i]);
+			else if (arg.equals("--window-sentences") && i + 1 < args.length)
+				Taxonomy.WINDOW_SENTENCES = Integer.parseInt(args[++i]);
+			else if (arg.equals("--relation-memory") && i + 1 < args.length)
+				Taxonomy.RELATION_MEMORY = Long.parseLong(args[++i]) << 20;
+			else if (arg.equals("--approximate") && i + 1 < args.length)
+				Taxonomy.APPROXIMATE_MEMORY = Long.parseLong(args[++i]) << 20;
+			else if (arg.equals("--approximate-check"))
+				Taxonomy.APPROXIMATE_CHECK = true;
+			else if (arg.equals("--top-relations") && i + 1 < args.length)
+				Taxonomy.TOP_RELATIONS = Integer.parseInt(args[++i]);
+			else if (arg.equals("--no-cooccurrences"))
+				Taxonomy.COOCCURRENCES = false;
+			else if (arg.equals("--no-term-relations"))
+				Taxonomy.TERM_RELATIONS = false;
+			else if (arg.equals("--tree-depth") && i + 1 < args.length)
+				Taxonomy.TREE_DEPTH = Integer.parseInt(args[++i]);
+			else if (arg.equals("--tree-fan-out") && i + 1 < args.length)
+				Taxonomy.TREE_FAN_OUT = Integer.parseInt(args[++i]);
+			else if (arg.equals("--tree-sizes"))
+				Taxonomy.TREE_SIZES = true;
+			else if (arg.equals("--tree-json"))
+				Taxonomy.TREE_JSON = true;
+			else if (arg.equals("--text-features"))
+				Taxonomy.BINARY_FEATURES = false;
+			else
+				remaining.add(arg);
+		}
+		return remaining.toArray(new String[remaining.size()]);
+	}
+
 	private static void printUsage() {
 		System.out.println(usage()
 				.replace("<b>", BLUE)
@@ -79,14 +145,42 @@ public class TaxonomyApp {
 			"    Initialize a taxonomy in directory taxonomy-dir\n\n" +
 			command + " <b>--import</b> <u>taxonomy-dir</u>\n\n" +
 			"    Import terms, roles and features into the taxonomy in directory taxonomy-dir\n\n" +
+			command + " <b>--append</b> <u>taxonomy-dir</u> <u>data-dir</u>\n\n" +
+			"    Add the terms, roles and features in data-dir to the taxonomy in directory taxonomy-dir\n\n" +
 			command + " <b>--build-hierarchy</b> <u>taxonomy-dir</u>\n\n" +
 			"    Add ISA relations to the taxonomy in directory taxonomy-dir\n\n" +
 			command + " <b>--add-relations</b> <u>taxonomy-dir</u>\n\n" +
 			"    Add relations to the taxonomy in directory taxonomy-dir\n\n" +
+			command + " <b>--score-relations</b> <u>taxonomy-dir</u>\n\n" +
+			"    Write PMI, NPMI, log-likelihood and Dice scores for the cooccurrence relations\n\n" +
+			command + " <b>--features-to-text</b> <u>taxonomy-dir</u>\n\n" +
+			"    Write the feature store of the taxonomy to a tab-separated features file\n\n" +
+			command + " <b>--features-to-binary</b> <u>taxonomy-dir</u>\n\n" +
+			"    Write the tab-separated features file of the taxonomy to a feature store\n\n" +
+			command + " <b>--snapshot</b> <u>taxonomy-dir</u>\n\n" +
+			"    Write a binary snapshot of the taxonomy, which is used to open it faster\n\n" +
+			command + " <b>--write-tree</b> <u>taxonomy-dir</u> <u>file</u>\n\n" +
+			"    Write the hierarchy as a tree to file, as indented text or JSON\n\n" +
 			command + " <b>--browse</b> <u>taxonomy-dir</u>\n\n" +
 			"    Enter the user loop on the taxonomy in directory taxonomy-dir\n\n" +
 			command + " <b>--help</b>\n\n" +
-			"    Prints this message\n\n";
+			"    Prints this message\n\n" +
+			"Options:\n\n" +
+			"    <b>--threads</b> <u>n</u>       number of threads used for importing, loading, the hierarchy and relations\n" +
+			"    <b>--batch-size</b> <u>n</u>    number of lines a thread parses at a time\n" +
+			"    <b>--window</b> <u>n</u>        number of terms in the cooccurrence window\n" +
+			"    <b>--window-sentences</b> <u>n</u>  maximum distance in sentences within the window\n" +
+			"    <b>--relation-memory</b> <u>mb</u>  count relations on disk using this many megabytes\n" +
+			"    <b>--approximate</b> <u>mb</u>  count relations approximately in this many megabytes\n" +
+			"    <b>--approximate-check</b>  also count exactly and report on the approximation\n" +
+			"    <b>--top-relations</b> <u>k</u>  number of related terms per term kept in the index\n" +
+			"    <b>--no-cooccurrences</b>  do not count cooccurrences when adding relations\n" +
+			"    <b>--no-term-relations</b>  do not extract term relations when adding relations\n" +
+			"    <b>--tree-depth</b> <u>n</u>    number of levels below the top written by --write-tree\n" +
+			"    <b>--tree-fan-out</b> <u>n</u>  number of hyponyms per term written by --write-tree\n" +
+			"    <b>--tree-sizes</b>        add the number of terms in each subtree to the tree\n" +
+			"    <b>--tree-json</b>         write the tree as JSON\n" +
+			"    <b>--text-features</b>     import features into features.txt instead of the feature store\n\n";
 	}
 
 	/**
@@ -142,6 +236,26 @@ public class TaxonomyApp {
 	}
 
 
+	/**
+	 * Add data from another corpus to the taxonomy. New terms are added to the
+	 * hierarchy if it is up to date, the relations have to be built again
+	 * afterwards.
+	 *
+	 * @param taxonomy the path to the taxonomy
+	 * @param dataLocation the path to the new data
+	 */
+
+	private static void appendData(String taxonomy, String dataLocation)
+	{
+		try {
+			Taxonomy tax = openTaxonomy(taxonomy);
+			printProgress(">>> Appending data from " + dataLocation);
+			tax.appendData(dataLocation);
+			printProgress(">>> Updated " + tax);
+		} catch (IOException ex) {
+			Logger.getLogger(TaxonomyApp.class.getName()).log(Level.SEVERE, null, ex); }
+	}
+
 	/**
 	 * Build a hierarchy using the morphological rule and save it in the
 	 * taxonomy.
@@ -162,7 +276,8 @@ public class TaxonomyApp {
 
 	/**
 	 * Add relations to the taxonomy. The taxonomy is assumed to have imported
-	 * all terms and feature vectors (that is, the contexts of the terms).
+	 * all terms and feature vectors (that is, the contexts of the terms). The
+	 * feature vectors are not loaded, they are streamed by addRelations().
 	 *
 	 * @param taxonomyDir path to the taxonomy
 	 */
@@ -172,13 +287,83 @@ public class TaxonomyApp {
 		try {
 			Taxonomy taxonomy = openTaxonomy(taxonomyDir);
 			printProgress(">>> Adding relations");
-			taxonomy.loadFeatures();
 			taxonomy.addRelations();
 			printProgress(">>> Updated " + taxonomy);
 		} catch (IOException ex) {
 			Logger.getLogger(TaxonomyApp.class.getName()).log(Level.SEVERE, null, ex); }
 	}
 
+	/**
+	 * Convert the features of the taxonomy between the binary feature store
+	 * and the tab-separated features file.
+	 *
+	 * @param taxonomyDir path to the taxonomy
+	 * @param toText whether to convert to text or from text
+	 */
+
+	private static void convertFeatures(String taxonomyDir, boolean toText)
+	{
+		try {
+			Taxonomy taxonomy = openTaxonomy(taxonomyDir);
+			if (toText)
+				taxonomy.featuresToText();
+			else
+				taxonomy.featuresToBinary();
+		} catch (IOException ex) {
+			Logger.getLogger(TaxonomyApp.class.getName()).log(Level.SEVERE, null, ex); }
+	}
+
+	/**
+	 * Calculate association scores for the cooccurrence relations of the
+	 * taxonomy, which lets them be ranked differently without adding relations
+	 * again.
+	 *
+	 * @param taxonomyDir path to the taxonomy
+	 */
+
+	private static void scoreRelations(String taxonomyDir)
+	{
+		try {
+			Taxonomy taxonomy = openTaxonomy(taxonomyDir);
+			printProgress(">>> Scoring relations");
+			taxonomy.scoreRelations();
+		} catch (IOException ex) {
+			Logger.getLogger(TaxonomyApp.class.getName()).log(Level.SEVERE, null, ex); }
+	}
+
+	/**
+	 * Write a snapshot of the taxonomy, used when the taxonomy is opened as
+	 * long as none of its files change.
+	 *
+	 * @param taxonomyDir path to the taxonomy
+	 */
+
+	private static void snapshot(String taxonomyDir)
+	{
+		try {
+			Taxonomy taxonomy = openTaxonomy(taxonomyDir);
+			taxonomy.writeSnapshot();
+			printProgress(">>> Wrote snapshot of " + taxonomy);
+		} catch (IOException ex) {
+			Logger.getLogger(TaxonomyApp.class.getName()).log(Level.SEVERE, null, ex); }
+	}
+
+	/**
+	 * Write the hierarchy of the taxonomy as a tree.
+	 *
+	 * @param taxonomyDir path to the taxonomy
+	 * @param fileName the file to write to
+	 */
+
+	private static void writeTree(String taxonomyDir, String fileName)
+	{
+		try {
+			Taxonomy taxonomy = openTaxonomy(taxonomyDir);
+			taxonomy.writeHierarchyTree(fileName);
+		} catch (IOException ex) {
+			Logger.getLogger(TaxonomyApp.class.getName()).log(Level.SEVERE, null, ex); }
+	}
+
 	private static void	exportSQL(String taxonomyDir)
 	{
 		try {
@@ -192,10 +377,11 @@ public class TaxonomyApp {
 	{
 		try {
 			Taxonomy taxonomy = openTaxonomy(taxonomyDir);
-			taxonomy.loadRelations();
+			// related terms come from the index if there is one
+			taxonomy.loadRelations(! taxonomy.hasTopRelations());
 			taxonomy.prettyPrint();
 			UserLoop.run(taxonomy);
-		} catch (FileNotFoundException ex) {
+		} catch (IOException ex) {
 			Logger.getLogger(TaxonomyApp.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
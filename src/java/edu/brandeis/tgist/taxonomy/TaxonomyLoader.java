@@ -1,7 +1,6 @@
 
 package edu.brandeis.tgist.taxonomy;
 
-import static edu.brandeis.tgist.taxonomy.Utils.getGzipReader;
 import static edu.brandeis.tgist.taxonomy.Utils.getReader;
 import java.io.BufferedReader;
 import java.io.File;
@@ -9,8 +8,17 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class TaxonomyLoader {
@@ -35,50 +43,213 @@ public class TaxonomyLoader {
 	}
 
 	/**
-	 * Load the terms from disk.
+	 * Load the terms, roles and hierarchy from disk. Technologies get their
+	 * identifiers in the order in which they occur in the terms file.
+	 *
+	 * Loading is done in two phases. In the parse phase the three files are cut
+	 * into chunks at line boundaries and all chunks are parsed concurrently, on
+	 * Taxonomy.LOAD_THREADS threads. In the link phase the results are added to
+	 * the taxonomy on the calling thread, in file order. Parsing does not need
+	 * the taxonomy, so roles and hierarchy are parsed while the terms are, and
+	 * linking is little more than looking up terms.
+	 *
+	 * All files are read with a RecordReader, which maps the file into memory
+	 * and hands out fields without splitting the line into strings.
 	 *
 	 * @param tFile
+	 * @param rFile
+	 * @param hFile
 	 * @param taxonomy
-	 * @throws FileNotFoundException
+	 * @throws IOException
 	 */
 
-	public static void loadTechnologies(String tFile, Taxonomy taxonomy)
-			throws FileNotFoundException
+	public static void loadData(String tFile, String rFile, String hFile, Taxonomy taxonomy)
+			throws IOException
 	{
-		if (new File(tFile).isFile()) {
-			System.out.println("Reading technologies...");
-			FileInputStream inputStream = new FileInputStream(tFile);
-			Scanner sc = new Scanner(inputStream, "UTF-8");
-			while (sc.hasNextLine()) {
-				String line = sc.nextLine();
-				String[] fields = line.split("\t");
-				String term = fields[0];
-				float score = Float.parseFloat(fields[1]);
-				int count = Integer.parseInt(fields[2]);
-				taxonomy.terms.put(term, new Technology(term, score, count));
-			}
+		ExecutorService pool = newPool();
+		try {
+			List<Future<List<Technology>>> terms =
+					parse(pool, tFile, false, TaxonomyLoader::parseTechnologies);
+			List<Future<List<String[]>>> roles =
+					parse(pool, rFile, false, TaxonomyLoader::parseRoles);
+			List<Future<List<String[]>>> hierarchy =
+					parse(pool, hFile, true, TaxonomyLoader::parseHierarchy);
+			linkTechnologies(tFile, terms, taxonomy);
+			linkRoles(rFile, roles, taxonomy);
+			linkHierarchy(hFile, hierarchy, taxonomy);
+		} finally {
+			pool.shutdownNow(); }
+	}
+
+	/**
+	 * Load the cooccurrence relations and the term relations from disk. This
+	 * is done in the same two phases as loadData(), except that terms are
+	 * already known so the parse phase also looks them up.
+	 *
+	 * @param crFile
+	 * @param trFile
+	 * @param taxonomy
+	 * @throws IOException
+	 */
+
+	public static void loadRelations(String crFile, String trFile, Taxonomy taxonomy)
+			throws IOException
+	{
+		ExecutorService pool = newPool();
+		// build the index before the parsing threads use it
+		taxonomy.getTermIndex();
+		try {
+			List<Future<List<RelationLine>>> relations =
+					parse(pool, crFile, true, reader -> parseCooccurrenceRelations(reader, taxonomy));
+			List<Future<List<TermRelationLine>>> termRelations =
+					parse(pool, trFile, true, reader -> parseTermRelations(reader, taxonomy));
+			linkCooccurrenceRelations(crFile, relations);
+			linkTermRelations(trFile, termRelations, taxonomy);
+		} finally {
+			pool.shutdownNow(); }
+	}
+
+	/**
+	 * Load only the cooccurrence relations.
+	 *
+	 * @param crFile
+	 * @param taxonomy
+	 * @throws IOException
+	 */
+
+	public static void loadCooccurrenceRelations(String crFile, Taxonomy taxonomy)
+			throws IOException
+	{
+		ExecutorService pool = newPool();
+		taxonomy.getTermIndex();
+		try {
+			linkCooccurrenceRelations(crFile,
+					parse(pool, crFile, true, reader -> parseCooccurrenceRelations(reader, taxonomy)));
+		} finally {
+			pool.shutdownNow(); }
+	}
+
+	/**
+	 * Load only the term relations.
+	 *
+	 * @param trFile
+	 * @param taxonomy
+	 * @throws IOException
+	 */
+
+	public static void loadTermRelations(String trFile, Taxonomy taxonomy)
+			throws IOException
+	{
+		ExecutorService pool = newPool();
+		taxonomy.getTermIndex();
+		try {
+			linkTermRelations(trFile,
+					parse(pool, trFile, true, reader -> parseTermRelations(reader, taxonomy)), taxonomy);
+		} finally {
+			pool.shutdownNow(); }
+	}
+
+	/**
+	 * Parser for the lines in a chunk of a file.
+	 */
+
+	interface ChunkParser<T> {
+		List<T> parse(RecordReader reader) throws IOException;
+	}
+
+	private static ExecutorService newPool()
+	{
+		return Executors.newFixedThreadPool(Math.max(1, Taxonomy.LOAD_THREADS));
+	}
+
+	/**
+	 * Start parsing the chunks of a file and return the results in file order.
+	 * If the file does not exist there are no chunks.
+	 */
+
+	private static <T> List<Future<List<T>>> parse(
+			ExecutorService pool, String fileName, boolean trim, ChunkParser<T> parser)
+			throws IOException
+	{
+		List<Future<List<T>>> results = new ArrayList<>();
+		File file = new File(fileName);
+		if (! file.isFile())
+			return results;
+		for (long[] chunk : RecordReader.chunks(file, Taxonomy.LOAD_THREADS)) {
+			results.add(pool.submit(() -> {
+				try (RecordReader reader = new RecordReader(file, trim, chunk[0], chunk[1])) {
+					return parser.parse(reader); }
+			}));
+		}
+		return results;
+	}
+
+	/**
+	 * Wait for the result of parsing a chunk.
+	 */
+
+	private static <T> List<T> get(Future<List<T>> result) throws IOException
+	{
+		try {
+			return result.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException)
+				throw (IOException) ex.getCause();
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			throw new IOException(ex.getCause()); }
+	}
+
+	private static List<Technology> parseTechnologies(RecordReader reader)
+			throws IOException
+	{
+		List<Technology> technologies = new ArrayList<>();
+		while (reader.next()) {
+			String term = reader.getString(0);
+			float score = reader.getFloat(1);
+			int count = reader.getInt(2);
+			technologies.add(new Technology(-1, term, score, count));
 		}
+		return technologies;
+	}
+
+	private static void linkTechnologies(
+			String tFile, List<Future<List<Technology>>> chunks, Taxonomy taxonomy)
+			throws IOException
+	{
+		if (new File(tFile).isFile())
+			System.out.println("Reading technologies...");
+		for (Future<List<Technology>> chunk : chunks)
+			for (Technology technology : get(chunk))
+				taxonomy.addTechnology(technology);
+	}
+
+	private static List<String[]> parseRoles(RecordReader reader)
+			throws IOException
+	{
+		List<String[]> roles = new ArrayList<>();
+		while (reader.next())
+			roles.add(new String[] { reader.getString(0), reader.getString(1) });
+		return roles;
 	}
 
-	public static void loadRoles(String rolesFile, Taxonomy taxonomy)
-			throws FileNotFoundException
+	private static void linkRoles(
+			String rolesFile, List<Future<List<String[]>>> chunks, Taxonomy taxonomy)
+			throws IOException
 	{
-		if (new File(rolesFile).isFile()) {
+		if (new File(rolesFile).isFile())
 			System.out.println("Reading ACT terms...");
-			FileInputStream inputStream = new FileInputStream(rolesFile);
-			Scanner sc = new Scanner(inputStream, "UTF-8");
-			//System.out.println(aFile);
-			while (sc.hasNextLine()) {
-				String line = sc.nextLine();
-				String[] fields = line.split("\t");
+		for (Future<List<String[]>> chunk : chunks) {
+			for (String[] fields : get(chunk)) {
 				String role = fields[0];
-				String term = fields[1];
-				Technology technology = taxonomy.terms.get(term);
+				Technology technology = taxonomy.terms.get(fields[1]);
 				technology.role = role;
 				taxonomy.roles.add(technology);
 			}
 		}
-
 	}
 
 	/**
@@ -86,52 +257,87 @@ public class TaxonomyLoader {
 	 *
 	 * @param vFile
 	 * @param taxonomy
-	 * @throws FileNotFoundException
+	 * @throws IOException
 	 */
 
 	public static void loadFeatures(String vFile, Taxonomy taxonomy)
-			throws FileNotFoundException
+			throws IOException
 	{
 		if (new File(vFile).isFile()) {
 			System.out.println("Reading features...");
-			FileInputStream inputStream = new FileInputStream(vFile);
-			Scanner sc = new Scanner(inputStream, "UTF-8");
-			CheckPoint checkpoint = new CheckPoint(true);
-			int c = 0;
-			while (sc.hasNextLine()) {
-				c++;
-				//if (c > 200) break;
-				if ((c % 100000) == 0) System.out.println(String.format("%d", c));
-				String line = sc.nextLine();
-				taxonomy.features.add(new FeatureVector(line, true));
+			try (RecordReader reader = new RecordReader(new File(vFile), false)) {
+				int c = 0;
+				while (reader.next()) {
+					c++;
+					if ((c % 100000) == 0) System.out.println(String.format("%d", c));
+					FeatureVector vector = new FeatureVector(reader.getLine(), true);
+					vector.termId = reader.getTermId(3, taxonomy);
+					taxonomy.features.add(vector);
+				}
 			}
-			//checkpoint.report("loadFeatures");
-			//System.out.println(FeatureVector.FEATS);
 		}
 	}
 
-	public static void loadHierarchy(String hFile, Taxonomy taxonomy)
-			throws FileNotFoundException
+	/**
+	 * Load the feature vectors from a feature store. The vectors share their
+	 * strings with the dictionaries of the store and do not have a feature
+	 * index, which makes them a lot smaller than vectors loaded from text.
+	 *
+	 * @param sFile
+	 * @param taxonomy
+	 * @throws IOException
+	 */
+
+	public static void loadFeatureStore(String sFile, Taxonomy taxonomy)
+			throws IOException
 	{
-		if (new File(hFile).isFile()) {
+		if (new File(sFile).isFile()) {
+			System.out.println("Reading feature store...");
+			try (FeatureStoreReader reader = new FeatureStoreReader(new File(sFile))) {
+				reader.resolveTerms(taxonomy);
+				int c = 0;
+				while (reader.next()) {
+					c++;
+					if ((c % 100000) == 0) System.out.println(String.format("%d", c));
+					taxonomy.features.add(reader.vector(false)); }
+			}
+		}
+	}
+
+	/**
+	 * Parse the lines of the hierarchy. A line with a term has one field, the
+	 * lines with the isa relations of the term have the relation type and the
+	 * target term. The term of the first lines of a chunk can be in an earlier
+	 * chunk.
+	 */
+
+	private static List<String[]> parseHierarchy(RecordReader reader)
+			throws IOException
+	{
+		List<String[]> lines = new ArrayList<>();
+		while (reader.next()) {
+			if (reader.fieldCount() == 1)
+				lines.add(new String[] { reader.getString(0) });
+			else
+				lines.add(new String[] { reader.getString(1), reader.getString(2) });
+		}
+		return lines;
+	}
+
+	private static void linkHierarchy(
+			String hFile, List<Future<List<String[]>>> chunks, Taxonomy taxonomy)
+			throws IOException
+	{
+		if (new File(hFile).isFile())
 			System.out.println("Reading hierarchy...");
-			FileInputStream inputStream = new FileInputStream(hFile);
-			Scanner sc = new Scanner(inputStream, "UTF-8");
-			Technology currentTechnology = null;
-			int l = 0;
-			while (sc.hasNextLine()) {
-				l++;
-				String line = sc.nextLine();
-				//System.out.print(l);
-				//System.out.println(" ==> "+line);
-				String[] fields = line.trim().split("\t");
+		Technology currentTechnology = null;
+		for (Future<List<String[]>> chunk : chunks) {
+			for (String[] fields : get(chunk)) {
 				if (fields.length == 1) {
 					currentTechnology = taxonomy.terms.get(fields[0]);
-					//System.out.println("  "+currentTechnology);
 				} else {
-					//System.out.println("  "+fields[0]);
-					String reltype = fields[1];
-					Technology target = taxonomy.terms.get(fields[2]);
+					String reltype = fields[0];
+					Technology target = taxonomy.terms.get(fields[1]);
 					// Sometimes the technology is null (and I assume that the target
 					// can also be null). Skip these cases.
 					// TODO: This is usually when the technology starts/end with
@@ -149,61 +355,103 @@ public class TaxonomyLoader {
 		}
 	}
 
-	public static void loadCooccurrenceRelations(String crFile, Taxonomy taxonomy)
-			throws FileNotFoundException
+	private static List<RelationLine> parseCooccurrenceRelations(
+			RecordReader reader, Taxonomy taxonomy)
+			throws IOException
 	{
-		if (new File(crFile).isFile()) {
+		List<RelationLine> lines = new ArrayList<>();
+		while (reader.next()) {
+			RelationLine line = new RelationLine();
+			if (reader.fieldCount() == 1) {
+				line.isTerm = true;
+				line.technology = reader.getTechnology(0, taxonomy);
+			} else {
+				line.count = reader.getInt(0);
+				line.mi = reader.getFloat(1);
+				line.technology = reader.getTechnology(2, taxonomy); }
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	private static void linkCooccurrenceRelations(
+			String crFile, List<Future<List<RelationLine>>> chunks)
+			throws IOException
+	{
+		if (new File(crFile).isFile())
 			System.out.println("Reading cooccurrence relations...");
-			FileInputStream inputStream = new FileInputStream(crFile);
-			Scanner sc = new Scanner(inputStream, "UTF-8");
-			Technology currentTechnology = null;
-			while (sc.hasNextLine()) {
-				String line = sc.nextLine();
-				String[] fields = line.trim().split("\t");
-				if (fields.length == 1) {
-					currentTechnology = taxonomy.terms.get(fields[0]);
+		Technology currentTechnology = null;
+		for (Future<List<RelationLine>> chunk : chunks) {
+			for (RelationLine line : get(chunk)) {
+				if (line.isTerm) {
+					currentTechnology = line.technology;
 				} else {
-					int count = Integer.parseInt(fields[0]);
-					float mi = Float.parseFloat(fields[1]);
-					Technology target = taxonomy.terms.get(fields[2]);
+					Technology target = line.technology;
 					if (currentTechnology == null) {
 						System.out.println("WARNING: no currentTechnology");
 						continue; }
-					currentTechnology.addCooccurrenceRelation(count, mi, target);
-					target.addCooccurrenceRelation(count, mi, currentTechnology);
+					// the pair is listed under both terms but stored once
+					currentTechnology.addCooccurrenceRelation(line.count, line.mi, target);
 				}
 			}
 		}
 	}
 
-	public static void loadTermRelations(String trFile, Taxonomy taxonomy)
-			throws FileNotFoundException
+	private static List<TermRelationLine> parseTermRelations(RecordReader reader, Taxonomy taxonomy)
+			throws IOException
+	{
+		List<TermRelationLine> lines = new ArrayList<>();
+		while (reader.next()) {
+			TermRelationLine line = new TermRelationLine();
+			String doc = reader.getString(0);
+			String pred = reader.getString(1);
+			Technology source = reader.getTechnology(2, taxonomy);
+			Technology target = reader.getTechnology(3, taxonomy);
+			line.context = new Context(doc, pred, source, target);
+			int first = 4;
+			// files written before relations were counted have a line for
+			// each occurrence and no count
+			if (isCount(reader, first))
+				line.count = reader.getInt(first++);
+			for (int i = first ;  i < reader.fieldCount() ; i++)
+				line.context.addElement(reader.getString(i));
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	private static boolean isCount(RecordReader reader, int field)
+	{
+		if (field >= reader.fieldCount() || reader.length(field) == 0)
+			return false;
+		byte b = reader.bytes()[reader.start(field)];
+		return b >= '0' && b <= '9';
+	}
+
+	/**
+	 * Add the lines with term relations to their relations, in the order of
+	 * the file. Lines with a count are examples of a relation that was already
+	 * counted and sampled, other lines are single occurrences.
+	 */
+
+	private static void linkTermRelations(
+			String trFile, List<Future<List<TermRelationLine>>> chunks, Taxonomy taxonomy)
+			throws IOException
 	{
-		if (new File(trFile).isFile()) {
+		if (new File(trFile).isFile())
 			System.out.println("Reading term relations...");
-			FileInputStream inputStream = new FileInputStream(trFile);
-			Scanner sc = new Scanner(inputStream, "UTF-8");
-			while (sc.hasNextLine()) {
-				String line = sc.nextLine();
-				String[] fields = line.trim().split("\t");
-				String doc = fields[0];
-				String pred = fields[1];
-				String term1 = fields[2];
-				String term2 = fields[3];
-				Technology source = taxonomy.terms.get(term1);
-				Technology target = taxonomy.terms.get(term2);
-				TermRelation rel = new TermRelation(doc, pred, source, target);
-				for (int i = 4 ;  i < fields.length ; i++)
-					rel.addContextElement(fields[i]);
-				source.addTermRelation(rel);
-				target.addTermRelation(rel);
-			}
+		for (Future<List<TermRelationLine>> chunk : chunks) {
+			for (TermRelationLine line : get(chunk))
+				taxonomy.addTermRelation(line.context, line.count);
 		}
 	}
 
 	/**
 	 * Read and add terms from a file with terms.
 	 *
+	 * Each term that is added gets the next free identifier, so identifiers
+	 * follow the order of the input file.
+	 *
 	 * The input file includes the normalized term name (all lower case), the
 	 * term count and the technology score. This file is external to the taxonomy
 	 * and the terms in the file will be added to the taxonomy if the terms meet
@@ -230,20 +478,55 @@ public class TaxonomyLoader {
 		while ((line = reader.readLine()) != null) {
 			String[] fields = line.split("\t");
 			String term = fields[0];
-			// filter out some wacko terms
-			if (term.endsWith(" ")) continue;
-			if (term.contains("  ")) continue;
-			if (term.endsWith("^")) continue;
+			if (! isWellFormed(term)) continue;
 			float score = Float.parseFloat(fields[1]);
 			int count = Integer.parseInt(fields[2]);
 			if (score >= minTechScore && count >= minCount) {
-				Technology ti = new Technology(term, score, count);
-		        taxonomy.terms.put(term, ti);
+				taxonomy.addTechnology(term, score, count);
 			}
 		}
 		System.out.println(String.format("Imported %d technologies", taxonomy.terms.size()));
 	}
 
+	/**
+	 * Filter out some wacko terms.
+	 */
+
+	static boolean isWellFormed(String term)
+	{
+		if (term.endsWith(" ")) return false;
+		if (term.contains("  ")) return false;
+		if (term.endsWith("^")) return false;
+		return true;
+	}
+
+	/**
+	 * Read a file with terms in the same format as for importTerms() and add
+	 * the counts and scores of its terms to a map of term statistics. Terms are
+	 * added to the map in the order in which they are first seen.
+	 *
+	 * @param termsFile
+	 * @param counts
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+
+	public static void readTermCounts(String termsFile, Map<String, TermCounts> counts)
+			throws FileNotFoundException, IOException
+	{
+		try (BufferedReader reader = getReader(termsFile)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				String term = fields[0];
+				if (! isWellFormed(term)) continue;
+				float score = Float.parseFloat(fields[1]);
+				int count = Integer.parseInt(fields[2]);
+				counts.computeIfAbsent(term, TermCounts::new).add(score, count);
+			}
+		}
+	}
+
 	/**
 	 * Import domain roles from a file created by the domain role code in
 	 * https://github.com/techknowledgist/act.
@@ -290,6 +573,16 @@ public class TaxonomyLoader {
 	 * to the disk. This is because for larger corpora the list of features gets
 	 * to be too large to keep in memory.
 	 *
+	 * The work is done by a FeatureImporter, which inflates, parses and writes
+	 * on separate threads. The number of parsing threads and the number of lines
+	 * they get at a time are set by Taxonomy.IMPORT_THREADS and
+	 * Taxonomy.IMPORT_BATCH_SIZE.
+	 *
+	 * Vectors are written to the binary feature store unless
+	 * Taxonomy.BINARY_FEATURES is false, in which case they are written to the
+	 * tab-separated features file. A file in the other format, from an earlier
+	 * import, is removed since it would be read instead or go stale.
+	 *
 	 * @param featuresFile
 	 * @param taxonomy
 	 * @throws IOException
@@ -298,34 +591,104 @@ public class TaxonomyLoader {
 	public static void importFeatures(String featuresFile, Taxonomy taxonomy)
 			throws IOException
 	{
-		BufferedReader buffered = getGzipReader(featuresFile);
-		String fFile = taxonomy.location + File.separator + Taxonomy.FEATURES_FILE;
-		System.out.println(fFile);
-		FeatureWriter fWriter = new FeatureWriter(new File(fFile));
-		String line;
-		String filename = null; //, year = null, term = null;
-		int c = 0;
-		int vectorsAdded = 0;
-		while ((line = buffered.readLine()) != null) {
-			c++;
-			if ((c % 100_000) == 0) System.out.println(c);
-			//if (c > 1_000_000) break;
-			String[] fields = line.split("\t");
-			if ("".equals(fields[0])) {
-				String term = fields[3];
-				if (taxonomy.terms.containsKey(term)) {
-					// prefix the full filename because the vector initialization
-					// code expects that
-					FeatureVector vector = new FeatureVector(filename + line);
-					fWriter.write(vector.asTabSeparatedFields());
-					vectorsAdded++;
-				}
-			} else {
-				filename = fields[0];
-			}
+		FeatureImporter importer = new FeatureImporter(
+				taxonomy, Taxonomy.IMPORT_THREADS, Taxonomy.IMPORT_BATCH_SIZE);
+		File sFile = new File(taxonomy.location, Taxonomy.FEATURE_STORE);
+		File fFile = new File(taxonomy.location, Taxonomy.FEATURES_FILE);
+		int vectorsAdded;
+		if (Taxonomy.BINARY_FEATURES) {
+			System.out.println(sFile);
+			try (FeatureStoreWriter store = new FeatureStoreWriter(sFile)) {
+				vectorsAdded = importer.run(featuresFile, store);
+				store.commit(); }
+			fFile.delete();
+		} else {
+			System.out.println(fFile);
+			try (FeatureWriter fWriter = new FeatureWriter(fFile)) {
+				vectorsAdded = importer.run(featuresFile, fWriter); }
+			sFile.delete();
 		}
-		fWriter.close();
 		System.out.println(String.format("Imported %d vectors", vectorsAdded));
 	}
 
+	/**
+	 * Read feature vectors for some of the terms of the taxonomy and add them
+	 * after the vectors that the taxonomy already has. They are added to the
+	 * feature store if the taxonomy has one and to the features file if it
+	 * only has that, otherwise this is the same as importFeatures().
+	 *
+	 * The vectors of all files are added in one go: they are written to a new
+	 * file that replaces the old one when all of them are written, so when one
+	 * of the files cannot be read none of the vectors are added.
+	 *
+	 * @param taxonomy
+	 * @param vectors The features files, with for each the terms whose vectors
+	 * are added from it, in the order they are added.
+	 * @throws IOException
+	 */
+
+	public static void appendFeatures(Taxonomy taxonomy, Map<String, Set<String>> vectors)
+			throws IOException
+	{
+		File sFile = new File(taxonomy.location, Taxonomy.FEATURE_STORE);
+		File fFile = new File(taxonomy.location, Taxonomy.FEATURES_FILE);
+		if (sFile.isFile() || (Taxonomy.BINARY_FEATURES && ! fFile.isFile())) {
+			try (FeatureStoreWriter store = new FeatureStoreWriter(sFile, true)) {
+				for (Map.Entry<String, Set<String>> entry : vectors.entrySet())
+					reportAppended(entry.getKey(),
+							appender(taxonomy, entry.getValue()).run(entry.getKey(), store));
+				store.commit(); }
+		} else {
+			File tmpFile = new File(fFile.getPath() + ".tmp");
+			try {
+				if (fFile.isFile())
+					Files.copy(fFile.toPath(), tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				try (FeatureWriter fWriter = new FeatureWriter(tmpFile, true)) {
+					for (Map.Entry<String, Set<String>> entry : vectors.entrySet())
+						reportAppended(entry.getKey(),
+								appender(taxonomy, entry.getValue()).run(entry.getKey(), fWriter)); }
+				Files.move(tmpFile.toPath(), fFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				tmpFile.delete(); }
+		}
+	}
+
+	private static FeatureImporter appender(Taxonomy taxonomy, Set<String> terms)
+	{
+		return new FeatureImporter(
+				taxonomy, terms, Taxonomy.IMPORT_THREADS, Taxonomy.IMPORT_BATCH_SIZE);
+	}
+
+	private static void reportAppended(String featuresFile, int vectorsAdded)
+	{
+		System.out.println(String.format("Added %d vectors from %s", vectorsAdded, featuresFile));
+	}
+
+}
+
+
+/**
+ * A parsed line of relations-cooc.txt, either a term or a relation of the last
+ * term seen.
+ */
+
+class RelationLine {
+
+	boolean isTerm;
+	Technology technology;
+	int count;
+	float mi;
+}
+
+
+/**
+ * A parsed line of relations-term.txt, the context of an example of a term
+ * relation and the count of the relation, or -1 if the line has no count.
+ */
+
+class TermRelationLine {
+
+	Context context;
+	int count = -1;
 }
@@ -0,0 +1,474 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Binary snapshot of a loaded taxonomy, so that opening a taxonomy does not
+ * have to parse the text files and rebuild everything from them.
+ *
+ * The snapshot holds the terms, roles, hierarchy, cooccurrence relations and
+ * term relations exactly as they are after the taxonomy was opened and its
+ * relations were loaded from the text files. It records the size and time
+ * stamp of each of those files and it is only used if none of them changed,
+ * so building the hierarchy or adding relations makes the snapshot stale
+ * until it is written again.
+ *
+ * The file starts with a header, followed by five sections and ending in a
+ * dictionary of strings:
+ *
+ *    magic version (length modified)*5 offset*3 termRelationCount
+ *    terms roles hierarchy relations termRelations
+ *    dictionary
+ *
+ * The magic number and version are ints, all other header fields are longs.
+ * The three offsets are those of the relations, the term relations and the
+ * dictionary. Everything else is made up of varints, where technologies are
+ * given by their identifiers and strings other than terms by a code into the
+ * dictionary.
+ *
+ *    terms          count (name score count)*
+ *    roles          count (technology role)*
+ *    hierarchy      for each technology: count (type target)* count hyponym*
+ *    relations      count (term term count mi)*
+ *    termRelations  (document pred source target count+1 elements element*)*
+ *
+ * A term name is a varint length and UTF-8 bytes, scores and mutual
+ * information values are the int bits of the float. Term relations are
+ * stored as the lines of relations-term.txt, with 0 for the count of lines
+ * that have none. The elements of a term relation context are written as they
+ * are in relations-term.txt, with 0 for the very common "Term" and otherwise
+ * the length plus one followed by the UTF-8 bytes. The dictionary has the same
+ * format as those of FeatureStore.
+ *
+ * The snapshot is read from a memory mapping, relations are only read when the
+ * taxonomy loads its relations.
+ */
+
+public class TaxonomySnapshot implements Closeable {
+
+	static final int MAGIC = 0x5447534e;  // "TGSN"
+	static final int VERSION = 3;
+
+	/** The name of the snapshot file. */
+	public static final String SNAPSHOT_FILE = "taxonomy.snap";
+
+	/** The files that the snapshot is built from, in the order of the header. */
+	static final String[] SOURCES = {
+		Taxonomy.TERMS_FILE, Taxonomy.ROLES_FILE, Taxonomy.HIERARCHY_FILE,
+		Taxonomy.RELATIONS_FILE, Taxonomy.TERM_RELATIONS_FILE };
+
+	static final int HEADER_SIZE = 8 + SOURCES.length * 16 + 32;
+
+	static final byte[] TERM = "Term".getBytes(StandardCharsets.UTF_8);
+
+	SnapshotInput in;
+	long relationsOffset;
+	long termRelationsOffset;
+	long dictionaryOffset;
+	long termRelationCount;
+	String[] dictionary;
+
+
+	/**
+	 * Write a snapshot of a taxonomy. The cooccurrence relations of the taxonomy
+	 * should have been loaded, term relations are copied from relations-term.txt
+	 * so that they keep the order of the file.
+	 *
+	 * @param taxonomy
+	 * @throws IOException
+	 */
+
+	static void write(Taxonomy taxonomy) throws IOException
+	{
+		// write to a new file and move it in place, the old snapshot may be mapped
+		File target = new File(taxonomy.location, SNAPSHOT_FILE);
+		File file = new File(taxonomy.location, SNAPSHOT_FILE + ".tmp");
+		StringDictionary dictionary = new StringDictionary();
+		long[] offsets = new long[3];
+		long termRelationCount;
+		SnapshotOutput out = new SnapshotOutput(file);
+		try {
+			out.write(new byte[HEADER_SIZE]);
+			// terms
+			out.writeVarint(taxonomy.technologies.size());
+			for (Technology tech : taxonomy.technologies) {
+				out.writeString(tech.name);
+				out.writeVarint(Float.floatToIntBits(tech.score));
+				out.writeVarint(tech.count); }
+			// roles
+			out.writeVarint(taxonomy.roles.size());
+			for (Technology tech : taxonomy.roles) {
+				out.writeVarint(tech.id);
+				out.writeVarint(dictionary.code(tech.role)); }
+			// hierarchy
+			for (Technology tech : taxonomy.technologies) {
+				out.writeVarint(tech.isaRelations.size());
+				for (IsaRelation isa : tech.isaRelations) {
+					out.writeVarint(dictionary.code(isa.type));
+					out.writeVarint(isa.target.id); }
+				out.writeVarint(tech.hyponyms.size());
+				for (Technology hypo : tech.hyponyms)
+					out.writeVarint(hypo.id); }
+			// cooccurrence relations
+			offsets[0] = out.position;
+			CooccurrenceTable table = taxonomy.cooccurrences;
+			out.writeVarint(table.size());
+			for (int slot = 0; slot < table.capacity(); slot++) {
+				if (table.isUsed(slot)) {
+					long key = table.keyAt(slot);
+					out.writeVarint(CooccurrenceTable.first(key));
+					out.writeVarint(CooccurrenceTable.second(key));
+					out.writeVarint(table.countAt(slot));
+					out.writeVarint(Float.floatToIntBits(table.miAt(slot))); }
+			}
+			// term relations
+			offsets[1] = out.position;
+			termRelationCount = writeTermRelations(taxonomy, out, dictionary);
+			offsets[2] = out.position;
+			dictionary.writeTo(out.out);
+		} finally {
+			out.close(); }
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+			for (String source : SOURCES) {
+				File sourceFile = new File(taxonomy.location, source);
+				raf.writeLong(sourceFile.isFile() ? sourceFile.length() : -1L);
+				raf.writeLong(sourceFile.lastModified()); }
+			for (long offset : offsets)
+				raf.writeLong(offset);
+			raf.writeLong(termRelationCount); }
+		Files.move(file.toPath(), target.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static long writeTermRelations(
+			Taxonomy taxonomy, SnapshotOutput out, StringDictionary dictionary)
+			throws IOException
+	{
+		File trFile = new File(taxonomy.location, Taxonomy.TERM_RELATIONS_FILE);
+		long count = 0;
+		if (trFile.isFile()) {
+			try (RecordReader reader = new RecordReader(trFile, true)) {
+				while (reader.next()) {
+					int source = reader.getTermId(2, taxonomy);
+					int target = reader.getTermId(3, taxonomy);
+					// loadTermRelations() fails on these
+					if (source < 0 || target < 0)
+						continue;
+					out.writeVarint(dictionary.code(reader.getString(0)));
+					out.writeVarint(dictionary.code(reader.getString(1)));
+					out.writeVarint(source);
+					out.writeVarint(target);
+					byte[] bytes = reader.bytes();
+					int first = 4;
+					if (reader.fieldCount() > first && reader.length(first) > 0
+							&& Character.isDigit(bytes[reader.start(first)])) {
+						out.writeVarint(reader.getInt(first) + 1);
+						first++;
+					} else {
+						out.writeVarint(0); }
+					out.writeVarint(reader.fieldCount() - first);
+					for (int i = first; i < reader.fieldCount(); i++) {
+						int start = reader.start(i);
+						int length = reader.length(i);
+						if (Arrays.equals(bytes, start, start + length, TERM, 0, TERM.length)) {
+							out.writeVarint(0);
+						} else {
+							out.writeVarint(length + 1);
+							out.write(bytes, start, length); }
+					}
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return true if the taxonomy in a directory has a snapshot and none of the
+	 * files it was made from changed after the snapshot was written.
+	 *
+	 * @param location The directory of the taxonomy.
+	 * @return True if there is a current snapshot.
+	 * @throws IOException
+	 */
+
+	static boolean isCurrent(String location) throws IOException
+	{
+		File file = new File(location, SNAPSHOT_FILE);
+		if (! file.isFile() || file.length() < HEADER_SIZE)
+			return false;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			if (raf.readInt() != MAGIC || raf.readInt() != VERSION)
+				return false;
+			for (String source : SOURCES) {
+				File sourceFile = new File(location, source);
+				long length = raf.readLong();
+				long modified = raf.readLong();
+				if (length != (sourceFile.isFile() ? sourceFile.length() : -1L)
+						|| modified != sourceFile.lastModified())
+					return false; }
+		}
+		return true;
+	}
+
+	/**
+	 * Open the snapshot of a taxonomy. Use isCurrent() first to check whether
+	 * the snapshot can be used.
+	 *
+	 * @param location The directory of the taxonomy.
+	 * @throws IOException
+	 */
+
+	TaxonomySnapshot(String location) throws IOException
+	{
+		this.in = new SnapshotInput(new File(location, SNAPSHOT_FILE));
+		this.in.seek(8 + SOURCES.length * 16);
+		this.relationsOffset = this.in.readLong();
+		this.termRelationsOffset = this.in.readLong();
+		this.dictionaryOffset = this.in.readLong();
+		this.termRelationCount = this.in.readLong();
+		this.in.seek(this.dictionaryOffset);
+		this.dictionary = new String[this.in.readVarint()];
+		for (int i = 0; i < this.dictionary.length; i++)
+			this.dictionary[i] = this.in.readString();
+	}
+
+	/**
+	 * Load the terms, roles and hierarchy into a taxonomy, this is what the
+	 * taxonomy would have loaded from terms.txt, roles.txt and hierarchy.txt.
+	 *
+	 * @param taxonomy
+	 */
+
+	void load(Taxonomy taxonomy)
+	{
+		SnapshotInput in = this.in;
+		in.seek(HEADER_SIZE);
+		System.out.println("Reading technologies...");
+		int terms = in.readVarint();
+		for (int i = 0; i < terms; i++) {
+			String name = in.readString();
+			float score = Float.intBitsToFloat(in.readVarint());
+			int count = in.readVarint();
+			taxonomy.addTechnology(name, score, count); }
+		System.out.println("Reading ACT terms...");
+		int roles = in.readVarint();
+		for (int i = 0; i < roles; i++) {
+			Technology technology = taxonomy.getTechnology(in.readVarint());
+			technology.role = this.dictionary[in.readVarint()];
+			taxonomy.roles.add(technology); }
+		System.out.println("Reading hierarchy...");
+		for (Technology tech : taxonomy.technologies) {
+			int isaCount = in.readVarint();
+			for (int i = 0; i < isaCount; i++) {
+				String type = this.dictionary[in.readVarint()];
+				Technology target = taxonomy.getTechnology(in.readVarint());
+				tech.isaRelations.add(new IsaRelation(type, tech, target));
+				tech.hypernyms.add(target); }
+			int hyponymCount = in.readVarint();
+			for (int i = 0; i < hyponymCount; i++)
+				tech.hyponyms.add(taxonomy.getTechnology(in.readVarint()));
+		}
+	}
+
+	/**
+	 * Load the cooccurrence relations into a taxonomy that was loaded from this
+	 * snapshot.
+	 *
+	 * @param taxonomy
+	 */
+
+	void loadCooccurrenceRelations(Taxonomy taxonomy)
+	{
+		SnapshotInput in = this.in;
+		in.seek(this.relationsOffset);
+		System.out.println("Reading cooccurrence relations...");
+		int count = in.readVarint();
+		CooccurrenceTable table = new CooccurrenceTable(taxonomy.technologies, count);
+		for (int i = 0; i < count; i++) {
+			int term1 = in.readVarint();
+			int term2 = in.readVarint();
+			int relCount = in.readVarint();
+			table.put(term1, term2, relCount, Float.intBitsToFloat(in.readVarint())); }
+		taxonomy.setCooccurrences(table);
+	}
+
+	/**
+	 * Load the term relations into a taxonomy that was loaded from this
+	 * snapshot.
+	 *
+	 * @param taxonomy
+	 */
+
+	void loadTermRelations(Taxonomy taxonomy)
+	{
+		SnapshotInput in = this.in;
+		in.seek(this.termRelationsOffset);
+		System.out.println("Reading term relations...");
+		for (long i = 0; i < this.termRelationCount; i++) {
+			String doc = this.dictionary[in.readVarint()];
+			String pred = this.dictionary[in.readVarint()];
+			Technology source = taxonomy.getTechnology(in.readVarint());
+			Technology target = taxonomy.getTechnology(in.readVarint());
+			Context context = new Context(doc, pred, source, target);
+			int count = in.readVarint() - 1;
+			int elements = in.readVarint();
+			for (int j = 0; j < elements; j++) {
+				int length = in.readVarint();
+				context.addElement(length == 0 ? "Term" : in.readString(length - 1)); }
+			taxonomy.addTermRelation(context, count);
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.in.close();
+	}
+
+}
+
+
+/**
+ * Buffered output that keeps track of its position and writes varints and
+ * strings.
+ */
+
+class SnapshotOutput {
+
+	OutputStream out;
+	ByteSink sink = new ByteSink();
+	long position;
+
+	SnapshotOutput(File file) throws IOException {
+		this.out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+	}
+
+	void write(byte[] bytes) throws IOException {
+		write(bytes, 0, bytes.length);
+	}
+
+	void write(byte[] bytes, int offset, int length) throws IOException {
+		this.out.write(bytes, offset, length);
+		this.position += length;
+	}
+
+	void writeVarint(int value) throws IOException {
+		this.sink.reset();
+		this.sink.writeVarint(value);
+		this.sink.writeTo(this.out);
+		this.position += this.sink.size;
+	}
+
+	void writeString(String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(bytes.length);
+		write(bytes);
+	}
+
+	void close() throws IOException {
+		this.out.close();
+	}
+}
+
+
+/**
+ * Sequential reader on a memory-mapped file. The file is mapped in segments, a
+ * new segment is mapped from the current position when a read needs more bytes
+ * than are left in the current one, so values never have to fit in a segment.
+ */
+
+class SnapshotInput {
+
+	static final long SEGMENT = 1L << 28;
+
+	RandomAccessFile file;
+	FileChannel channel;
+	long size;
+	MappedByteBuffer segment;
+	long segmentStart;
+	byte[] bytes = new byte[256];
+
+	SnapshotInput(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.size = this.channel.size();
+		map(0, 0);
+	}
+
+	private void map(long start, int needed) {
+		long length = Math.min(Math.max(SEGMENT, needed), this.size - start);
+		try {
+			this.segment = this.channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex); }
+		this.segmentStart = start;
+	}
+
+	private void ensure(int needed) {
+		needed = (int) Math.min(needed, this.size - position());
+		if (this.segment.remaining() < needed)
+			map(position(), needed);
+	}
+
+	long position() {
+		return this.segmentStart + this.segment.position();
+	}
+
+	void seek(long position) {
+		if (position < this.segmentStart
+				|| position > this.segmentStart + this.segment.limit())
+			map(position, 0);
+		this.segment.position((int) (position - this.segmentStart));
+	}
+
+	long readLong() {
+		ensure(8);
+		return this.segment.getLong();
+	}
+
+	int readVarint() {
+		ensure(5);
+		MappedByteBuffer buffer = this.segment;
+		int result = 0;
+		int shift = 0;
+		while (true) {
+			byte b = buffer.get();
+			result |= (b & 0x7f) << shift;
+			if (b >= 0) break;
+			shift += 7; }
+		return result;
+	}
+
+	String readString() {
+		return readString(readVarint());
+	}
+
+	String readString(int length) {
+		ensure(length);
+		if (length > this.bytes.length)
+			this.bytes = new byte[Math.max(length, this.bytes.length * 2)];
+		this.segment.get(this.bytes, 0, length);
+		return new String(this.bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	void close() throws IOException {
+		this.segment = null;
+		this.file.close();
+	}
+}
@@ -10,11 +10,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 
@@ -36,19 +36,19 @@ public class TaxonomyWriter {
 	}
 
 	/**
-	 * Write terms to disk.
+	 * Write terms to disk. Terms are written in the order of their identifiers
+	 * so that they get the same identifiers when they are loaded again.
 	 *
 	 * @param termsFile The File to write to.
-	 * @param technologies Map with Technology instances to write to disk.
+	 * @param technologies List with Technology instances to write to disk.
 	 * @throws IOException
 	 */
 	public static void writeTerms(
-			String termsFile, HashMap<String, Technology> technologies)
+			String termsFile, List<Technology> technologies)
 			throws IOException
 	{
 		try (BufferedWriter writer = getWriter(termsFile)) {
-			for (String technology : technologies.keySet()) {
-				Technology tech = technologies.get(technology);
+			for (Technology tech : technologies) {
 				writer.write(tech.asTabSeparatedFields()); }}
 		System.out.println(String.format("Wrote technologies to %s", termsFile));
 	}
@@ -111,14 +111,36 @@ public class TaxonomyWriter {
 		try (OutputStreamWriter writer =
 				new OutputStreamWriter(
 					new FileOutputStream(hierarchyFile), StandardCharsets.UTF_8)) {
-			for (Technology technology : taxonomy.terms.values()) {
-				if (technology.isaRelations.size() > 0) {
-					writer.write(technology.name + "\n");
-					for (IsaRelation isa : technology.isaRelations)
-						writer.write(String.format(
-								"\tisa\t%s",
-								isa.asTabSeparatedString(technology)));
-				}
+			writeHierarchy(writer, taxonomy.technologies);
+		}
+	}
+
+	/**
+	 * Add the entries of technologies to the end of a hierarchy file. This
+	 * gives the same file as writeHierarchy() if the technologies are the last
+	 * ones of the taxonomy and no other entry changed.
+	 */
+
+	public static void appendHierarchy(File hierarchyFile, List<Technology> technologies)
+			throws IOException
+	{
+		try (OutputStreamWriter writer =
+				new OutputStreamWriter(
+					new FileOutputStream(hierarchyFile, true), StandardCharsets.UTF_8)) {
+			writeHierarchy(writer, technologies);
+		}
+	}
+
+	private static void writeHierarchy(Writer writer, List<Technology> technologies)
+			throws IOException
+	{
+		for (Technology technology : technologies) {
+			if (technology.isaRelations.size() > 0) {
+				writer.write(technology.name + "\n");
+				for (IsaRelation isa : technology.isaRelations)
+					writer.write(String.format(
+							"\tisa\t%s",
+							isa.asTabSeparatedString(technology)));
 			}
 		}
 	}
@@ -130,20 +152,72 @@ public class TaxonomyWriter {
 		try (OutputStreamWriter writer =
 				new OutputStreamWriter(
 					new FileOutputStream(relationsFile), StandardCharsets.UTF_8)) {
-			for (Technology technology : taxonomy.terms.values()) {
-				if (technology.relations.size() > 0) {
+			CooccurrenceTable table = taxonomy.cooccurrences;
+			for (Technology technology : taxonomy.technologies) {
+				int start = table.start(technology.id);
+				int end = table.end(technology.id);
+				if (end > start) {
 					writer.write(technology.name + "\n");
-					for (String relatedTech : technology.relations.keySet()) {
-						CooccurrenceRelation rel = technology.relations.get(relatedTech);
+					for (int i = start; i < end; i++) {
 						writer.write(String.format(
-								"\t%s",
-								rel.asTabSeparatedString(technology)));
+								"\t%d\t%.4f\t%s\n",
+								table.count(i), table.mi(i),
+								taxonomy.technologies.get(table.target(i)).name));
 					}
 				}
 			}
 		}
 	}
 
+	/**
+	 * Write cooccurrence relations that come from a merger over runs of
+	 * directed pairs, sorted on source term and then target term. The output
+	 * is the same as that of writeCooccurrenceRelations(File, Taxonomy). Each
+	 * relation is also offered to the related terms index, if there is one.
+	 *
+	 * @param relationsFile
+	 * @param taxonomy
+	 * @param relations
+	 * @param top The builder of the related terms index, or null.
+	 * @throws IOException
+	 */
+
+	static void writeCooccurrenceRelations(
+			File relationsFile, Taxonomy taxonomy, RunMerger relations, TopRelationsBuilder top)
+			throws IOException
+	{
+		relationsFile.createNewFile();
+		int n = taxonomy.terms.size();
+		try (OutputStreamWriter writer =
+				new OutputStreamWriter(
+					new FileOutputStream(relationsFile), StandardCharsets.UTF_8)) {
+			int current = -1;
+			while (relations.next()) {
+				Technology source = taxonomy.technologies.get(CooccurrenceTable.first(relations.key()));
+				Technology target = taxonomy.technologies.get(CooccurrenceTable.second(relations.key()));
+				if (source.id != current) {
+					current = source.id;
+					writer.write(source.name + "\n"); }
+				int count = relations.count();
+				float mi = taxonomy.mutualInformation(n, source, target, count);
+				writer.write(String.format("\t%d\t%.4f\t%s\n", count, mi, target.name));
+				if (top != null)
+					top.offer(source.id, target.id, count, mi);
+			}
+		}
+	}
+
+	/**
+	 * Write the term relations, each one once with a line for each of its
+	 * example contexts. A line has the document of the example, the predicate,
+	 * the source and target terms, the number of occurrences of the relation
+	 * and the elements of the context.
+	 *
+	 * @param relationsFile
+	 * @param taxonomy
+	 * @throws IOException
+	 */
+
 	public static void writeTermRelations(File relationsFile, Taxonomy taxonomy)
 			throws IOException
 	{
@@ -151,12 +225,14 @@ public class TaxonomyWriter {
 		try (OutputStreamWriter writer =
 				new OutputStreamWriter(
 					new FileOutputStream(relationsFile), StandardCharsets.UTF_8)) {
-			for (Technology technology : taxonomy.terms.values()) {
-				if (technology.termRelations.size() > 0) {
-					for (TermRelation rel : technology.termRelations) {
-						writer.write(String.format("%s\t%s\t%s\t%s\t%s\n", rel.document, rel.pred,
-								rel.source.name, rel.target.name, rel.contextAsTabSeparatedString()));
-					}
+			for (Technology technology : taxonomy.technologies) {
+				for (TermRelation rel : technology.termRelations) {
+					// relations are listed under both terms but written once
+					if (rel.source != technology)
+						continue;
+					for (Context context : rel.contexts)
+						writer.write(String.format("%s\t%s\t%s\t%s\t%d\t%s\n", context.document, rel.pred,
+								rel.source.name, rel.target.name, rel.count, context.asTabSeparatedString()));
 				}
 			}
 		}
@@ -178,7 +254,7 @@ public class TaxonomyWriter {
 	{
 		System.out.println("Creating SQL export for terms...");
 		try (BufferedWriter writer = getWriter(sqlFile(tax.location, fileName))) {
-			for (Technology term : tax.terms.values()) {
+			for (Technology term : tax.technologies) {
 				String sql = String.format(
 						"INSERT INTO technologies VALUES (%s, %.6s, %s);\n",
 						quote(term.name), term.score, term.count);
@@ -203,7 +279,7 @@ public class TaxonomyWriter {
 	{
 		System.out.println("Creating SQL export for isa relations...");
 		try (BufferedWriter writer2 = getWriter(sqlFile(tax.location, fileName))) {
-			for (Technology term : tax.terms.values()) {
+			for (Technology term : tax.technologies) {
 				for (IsaRelation isa : term.isaRelations) {
 					String sql = String.format(
 							"INSERT INTO hierarchy VALUES (%s, %s, %s, %s);\n",
@@ -273,13 +349,21 @@ public class TaxonomyWriter {
 			String line = reader.readLine();
 			if (line == null) break;
 			String[] fields = line.trim().split("\t", 5);
+			// files written before relations were counted have no count
+			String count = "1";
+			String context = fields[4];
+			int tab = context.indexOf('\t');
+			if (tab > 0 && context.substring(0, tab).matches("\\d+")) {
+				count = context.substring(0, tab);
+				context = context.substring(tab + 1); }
 			String s = String.format(
-					"INSERT INTO relations_term VALUES (%s, %s, %s, %s, %s);\n",
+					"INSERT INTO relations_term VALUES (%s, %s, %s, %s, %s, %s);\n",
 					quote(fields[0]),	// document
 					quote(fields[1]),	// predicate
 					quote(fields[2]),	// source term
 					quote(fields[3]),	// target term
-					quote(fields[4]));	// context
+					count,				// count
+					quote(context));	// context
 			writer.write(s);
 		}
 		reader.close();
@@ -320,13 +404,26 @@ public class TaxonomyWriter {
 		return "\"" + text + "\"";
 	}
 
-	public static void writeHierarchyTree(String outFile, Taxonomy taxonomy)
+	/**
+	 * Write the hierarchy as a tree, starting from the terms without a
+	 * hypernym, see HierarchyTreeWriter. How much is written and in what format
+	 * is set by TREE_DEPTH, TREE_FAN_OUT, TREE_SIZES and TREE_JSON on Taxonomy.
+	 *
+	 * @return The number of terms written.
+	 */
+
+	public static int writeHierarchyTree(String outFile, Taxonomy taxonomy)
 			throws FileNotFoundException, IOException
 	{
-		BufferedWriter writer = getWriter(outFile);
-		for (Technology technology : taxonomy.terms.values()) {
-			technology.writeHierarchyFragment(writer, "");
+		HierarchyTreeWriter tree = new HierarchyTreeWriter(taxonomy);
+		tree.maxDepth = Taxonomy.TREE_DEPTH;
+		tree.maxChildren = Taxonomy.TREE_FAN_OUT;
+		tree.sizes = Taxonomy.TREE_SIZES;
+		tree.json = Taxonomy.TREE_JSON;
+		try (BufferedWriter writer = getWriter(outFile)) {
+			tree.write(writer);
 		}
+		return tree.termCount;
 	}
 
 }
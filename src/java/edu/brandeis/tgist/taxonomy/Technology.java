@@ -1,15 +1,15 @@
 package edu.brandeis.tgist.taxonomy;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 public class Technology implements Comparable {
 
+	/**
+	 * Dense identifier of the technology, technologies are numbered from 0 in
+	 * the order in which they are added to the taxonomy.
+	 */
+	int id;
 	String name;
 	int count;
 	float score;
@@ -18,13 +18,18 @@ public class Technology implements Comparable {
 	List<Technology> hyponyms;
 	List<IsaRelation> isaRelations;
 	List<TermRelation> termRelations;
-	Map<String, CooccurrenceRelation> relations;
 
-	Technology(String term, float score, int count) {
+	/**
+	 * The cooccurrence relations of the taxonomy. Relations are not stored on
+	 * the technology, this is set when the technology is added to a taxonomy.
+	 */
+	CooccurrenceTable cooccurrences;
+
+	Technology(int id, String term, float score, int count) {
+		this.id = id;
 		this.name = term;
 		this.count = count;
 		this.score = score;
-		this.relations = new HashMap<>();
 		this.isaRelations = new ArrayList<>();
 		this.termRelations = new ArrayList<>();
 		this.hypernyms = new ArrayList<>();
@@ -48,30 +53,37 @@ public class Technology implements Comparable {
 
 	public void prettyPrint() {
 		System.out.println(this);
-		for (CooccurrenceRelation rel : this.relations.values()) {
+		for (CooccurrenceRelation rel : getCooccurrenceRelations()) {
 			System.out.println("   " + rel);
 		}
 	}
 
+	/**
+	 * Return the cooccurrence relations of the technology, created from the
+	 * cooccurrence table of the taxonomy, ordered on target identifier.
+	 */
+	public List<CooccurrenceRelation> getCooccurrenceRelations() {
+		return this.cooccurrences.relations(this);
+	}
+
+	public int cooccurrenceRelationCount() {
+		return this.cooccurrences.end(this.id) - this.cooccurrences.start(this.id);
+	}
+
+	/**
+	 * Count a cooccurrence with another technology. The relation is shared by
+	 * both technologies, so this should be called on one of them only.
+	 */
 	public void addCooccurrenceRelation(Technology tech) {
-		if (this.relations.containsKey(tech.name)) {
-			this.relations.get(tech.name).count++;
-		} else {
-			this.relations.put(tech.name, new CooccurrenceRelation(this, tech)); }
+		this.cooccurrences.add(this.id, tech.id, 1);
 	}
 
 	public void addCooccurrenceRelation(int count, Technology tech) {
-		if (this.relations.containsKey(tech.name)) {
-			this.relations.get(tech.name).count++;
-		} else {
-			this.relations.put(tech.name, new CooccurrenceRelation(count, this, tech)); }
+		this.cooccurrences.add(this.id, tech.id, count);
 	}
 
 	public void addCooccurrenceRelation(int count, float mi, Technology tech) {
-		if (this.relations.containsKey(tech.name)) {
-			this.relations.get(tech.name).count++;
-		} else {
-			this.relations.put(tech.name, new CooccurrenceRelation(count, mi, this, tech)); }
+		this.cooccurrences.put(this.id, tech.id, count, mi);
 	}
 
 	public void addTermRelation(TermRelation rel) {
@@ -82,24 +94,4 @@ public class Technology implements Comparable {
 		return String.format("%s\t%f\t%d\n", this.name, this.score, this.count);
 	}
 
-	void filterRelations() {
-		if (this.relations.size() < 25)
-			return;
-		Set<String> targets = relations.keySet();
-		ArrayList<String> keysToDelete = new ArrayList<>();
-		for (String target : targets) {
-			CooccurrenceRelation rel = this.relations.get(target);
-			if (rel.count < 3)
-				keysToDelete.add(target); }
-		for (String keyToDelete : keysToDelete)
-			this.relations.remove(keyToDelete);
-	}
-
-	void writeHierarchyFragment(BufferedWriter writer, String indentation)
-			throws IOException {
-		writer.write(String.format("%s%s\n", indentation, this.name));
-		for (Technology hypo : this.hyponyms)
-			hypo.writeHierarchyFragment(writer, indentation + "    ");
-	}
-
 }
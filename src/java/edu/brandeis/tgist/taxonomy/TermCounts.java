@@ -0,0 +1,28 @@
+package edu.brandeis.tgist.taxonomy;
+
+/**
+ * Term count and technology score of a term, summed over several terms files.
+ * The score is the average of the scores weighted by the counts.
+ */
+
+class TermCounts {
+
+	String term;
+	int count;
+	double weightedScore;
+	float lastScore;
+
+	TermCounts(String term) {
+		this.term = term;
+	}
+
+	void add(float score, int count) {
+		this.count += count;
+		this.weightedScore += (double) score * count;
+		this.lastScore = score;
+	}
+
+	float score() {
+		return this.count == 0 ? this.lastScore : (float) (this.weightedScore / this.count);
+	}
+}
@@ -0,0 +1,95 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Compact membership test for terms that works on UTF-8 bytes.
+ *
+ * The filter stores a 64-bit hash of the UTF-8 bytes of each term in an open
+ * addressing table of longs. A term that is in the set is always accepted and
+ * a term that is not in the set is rejected unless its hash collides with the
+ * hash of one of the terms, which for practical purposes does not happen. So
+ * the filter is used to throw out lines cheaply and the lines that pass are
+ * still checked against the terms map.
+ *
+ * Hashing is done on the raw bytes, so a term whose bytes are not valid UTF-8
+ * will not match the term it was decoded to.
+ */
+
+class TermFilter {
+
+	/** Hash value used for empty slots. */
+	static final long EMPTY = 0L;
+
+	long[] table;
+	int mask;
+	int size;
+
+
+	/**
+	 * Create a filter for a collection of terms.
+	 *
+	 * @param terms The terms that should pass the filter.
+	 */
+
+	TermFilter(Collection<String> terms)
+	{
+		int capacity = Integer.highestOneBit(Math.max(4, terms.size() * 2 - 1)) << 1;
+		this.table = new long[capacity];
+		this.mask = capacity - 1;
+		for (String term : terms) {
+			byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+			add(hash(bytes, 0, bytes.length)); }
+	}
+
+	private void add(long hash)
+	{
+		int slot = slot(hash);
+		while (this.table[slot] != EMPTY) {
+			if (this.table[slot] == hash) return;
+			slot = (slot + 1) & this.mask; }
+		this.table[slot] = hash;
+		this.size++;
+	}
+
+	/**
+	 * Return true if the term in bytes[offset:offset+length] might be in the
+	 * set and false if it is certainly not in it.
+	 */
+
+	boolean mightContain(byte[] bytes, int offset, int length)
+	{
+		long hash = hash(bytes, offset, length);
+		int slot = slot(hash);
+		while (this.table[slot] != EMPTY) {
+			if (this.table[slot] == hash) return true;
+			slot = (slot + 1) & this.mask; }
+		return false;
+	}
+
+	private int slot(long hash)
+	{
+		return (int) (hash ^ (hash >>> 32)) & this.mask;
+	}
+
+	/**
+	 * FNV-1a over the bytes followed by the finalizer from MurmurHash3 so that
+	 * the low bits are usable as a table index. Never returns EMPTY.
+	 */
+
+	static long hash(byte[] bytes, int offset, int length)
+	{
+		long h = 0xcbf29ce484222325L;
+		for (int i = offset; i < offset + length; i++) {
+			h ^= bytes[i] & 0xff;
+			h *= 0x100000001b3L; }
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == EMPTY ? 1L : h;
+	}
+
+}
@@ -0,0 +1,77 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps the UTF-8 bytes of a term to the identifier of its technology.
+ *
+ * This is the byte-level counterpart of Taxonomy.terms, used by readers that
+ * see terms as slices of a byte array and do not want to create a String for
+ * each lookup. The table uses open addressing with the hashes of TermFilter,
+ * each slot holds a technology identifier and a hit is confirmed by comparing
+ * the bytes of the term.
+ */
+
+class TermIndex {
+
+	/** Identifier used for empty slots. */
+	static final int EMPTY = -1;
+
+	byte[][] terms;
+	long[] hashes;
+	int[] ids;
+	int mask;
+
+
+	/**
+	 * Create an index for a list of technologies, where the technology at
+	 * position i has identifier i.
+	 *
+	 * @param technologies
+	 */
+
+	TermIndex(List<Technology> technologies)
+	{
+		int capacity = Integer.highestOneBit(Math.max(4, technologies.size() * 2 - 1)) << 1;
+		this.terms = new byte[technologies.size()][];
+		this.hashes = new long[capacity];
+		this.ids = new int[capacity];
+		this.mask = capacity - 1;
+		Arrays.fill(this.ids, EMPTY);
+		for (Technology technology : technologies) {
+			byte[] bytes = technology.name.getBytes(StandardCharsets.UTF_8);
+			this.terms[technology.id] = bytes;
+			long hash = TermFilter.hash(bytes, 0, bytes.length);
+			int slot = slot(hash);
+			while (this.ids[slot] != EMPTY)
+				slot = (slot + 1) & this.mask;
+			this.hashes[slot] = hash;
+			this.ids[slot] = technology.id; }
+	}
+
+	/**
+	 * Return the identifier of the term in bytes[offset:offset+length], or -1
+	 * if it is not a technology.
+	 */
+
+	int get(byte[] bytes, int offset, int length)
+	{
+		long hash = TermFilter.hash(bytes, offset, length);
+		int slot = slot(hash);
+		while (this.ids[slot] != EMPTY) {
+			if (this.hashes[slot] == hash) {
+				byte[] term = this.terms[this.ids[slot]];
+				if (Arrays.equals(term, 0, term.length, bytes, offset, offset + length))
+					return this.ids[slot]; }
+			slot = (slot + 1) & this.mask; }
+		return -1;
+	}
+
+	private int slot(long hash)
+	{
+		return (int) (hash ^ (hash >>> 32)) & this.mask;
+	}
+
+}
@@ -0,0 +1,196 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stage of adding relations that extracts term relations, on a thread of its
+ * own so it runs next to the counting of cooccurrences.
+ *
+ * The counting code only checks whether the two vectors of a pair could be
+ * related, see FeatureVector.potentiallyRelatedTo(), and hands the pairs that
+ * pass to the stage through a bounded queue. The stage does the rest: it checks
+ * the distance between the terms, builds the context and adds the occurrence
+ * to its relation in the taxonomy. Pairs are taken in the order they were
+ * added, so the term relations are the same as when they are extracted inline.
+ * When the queue is full, adding a pair waits for the stage.
+ *
+ *		try (TermRelationStage stage = new TermRelationStage(taxonomy, 10_000)) {
+ *			stage.start();
+ *			stage.add(v1, v2);
+ *			...
+ *			stage.finish();
+ *		}
+ *
+ * Only the stage touches the term relations of the taxonomy until finish()
+ * returns.
+ */
+
+public class TermRelationStage implements Closeable {
+
+	/** Marks the end of the pairs. */
+	static final FeatureVector[] END = new FeatureVector[0];
+
+	Taxonomy taxonomy;
+	BlockingQueue<FeatureVector[]> queue;
+	Thread thread;
+	volatile Throwable failure;
+
+	/** The number of pairs added and the number that were term relations. */
+	int candidateCount;
+	int relationCount;
+
+
+	/**
+	 * Create a stage.
+	 *
+	 * @param taxonomy The taxonomy the term relations are added to.
+	 * @param capacity The number of pairs that can wait in the queue.
+	 */
+
+	TermRelationStage(Taxonomy taxonomy, int capacity)
+	{
+		this.taxonomy = taxonomy;
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+	}
+
+	void start()
+	{
+		this.thread = new Thread(this::run, "term-relations");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Add a pair of vectors that could make a term relation. A vector that can
+	 * be reset by the caller, that is, a MutableFeatureVector, is copied.
+	 *
+	 * @param v1 The vector of the first term.
+	 * @param v2 The vector of the second term.
+	 * @throws IOException If the stage failed.
+	 */
+
+	void add(FeatureVector v1, FeatureVector v2) throws IOException
+	{
+		put(new FeatureVector[] { copy(v1), copy(v2) });
+		this.candidateCount++;
+	}
+
+	/**
+	 * Add pairs of vectors, in order, and clear the list.
+	 */
+
+	void addAll(List<FeatureVector[]> pairs) throws IOException
+	{
+		for (FeatureVector[] pair : pairs)
+			add(pair[0], pair[1]);
+		pairs.clear();
+	}
+
+	private static FeatureVector copy(FeatureVector vector)
+	{
+		if (! (vector instanceof MutableFeatureVector))
+			return vector;
+		LazyFeatureVector copy = new LazyFeatureVector();
+		copy.setFrom((LazyFeatureVector) vector);
+		return copy;
+	}
+
+	private void put(FeatureVector[] pair) throws IOException
+	{
+		try {
+			// check now and then whether the stage is still taking pairs
+			while (! this.queue.offer(pair, 100, TimeUnit.MILLISECONDS))
+				checkFailure();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ex); }
+		checkFailure();
+	}
+
+	/**
+	 * Wait until all pairs are processed.
+	 *
+	 * @throws IOException If the stage failed.
+	 */
+
+	void finish() throws IOException
+	{
+		put(END);
+		try {
+			this.thread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ex); }
+		checkFailure();
+	}
+
+	private void checkFailure() throws IOException
+	{
+		Throwable cause = this.failure;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if (cause != null)
+			throw new IOException(cause);
+	}
+
+	/**
+	 * Stop the stage if it is still running, which is the case when adding
+	 * relations failed before finish() was called.
+	 */
+
+	@Override
+	public void close()
+	{
+		if (this.thread != null && this.thread.isAlive())
+			this.thread.interrupt();
+	}
+
+	private void run()
+	{
+		try {
+			while (true) {
+				FeatureVector[] pair = this.queue.take();
+				if (pair == END)
+					break;
+				extract(pair[0], pair[1]);
+			}
+		} catch (InterruptedException ex) {
+			// stopped by close()
+		} catch (RuntimeException | Error ex) {
+			this.failure = ex;
+			this.queue.clear();
+		}
+	}
+
+	/**
+	 * Add a term relation if two vectors can be merged.
+	 *
+	 * Two vectors can merge if they occur in the same sentence and the first term
+	 * vector has the same verb in its next_V field as the second has in its prev_V
+	 * field. At least, that is the theory, in practice we do not have a next_V field
+	 * so we fake it by looking at sentence positions. The verb is the predicate
+	 * of the relation. The first part is checked before the pair is added.
+	 */
+
+	private void extract(FeatureVector v1, FeatureVector v2)
+	{
+		int end1 = v1.getSentenceEnd();
+		int start2 = v2.getSentenceStart();
+		if ((start2 - end1) >= 6)
+			return;
+		Technology t1 = this.taxonomy.getTechnology(v1.termId);
+		Technology t2 = this.taxonomy.getTechnology(v2.termId);
+		Context context = TermRelation.buildContext(
+				v1.getFileName(), v2.getFeature(FeatureVector.PREV_V),
+				t1, t2, v1, v2, end1, start2);
+		this.taxonomy.getTermRelation(context.pred, t1, t2)
+				.addOccurrence(context, Math.max(1, Taxonomy.TERM_RELATION_EXAMPLES));
+		this.relationCount++;
+	}
+
+}
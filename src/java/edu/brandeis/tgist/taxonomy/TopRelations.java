@@ -0,0 +1,106 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index with the related terms of each term, that is, the cooccurrence
+ * relations with the highest mutual information, at most K per term.
+ *
+ * The index is written by addRelations() next to relations-cooc.txt, so that
+ * browsing a taxonomy does not need to load all cooccurrence relations. The
+ * file has a header, the start of the relations of each term and the relations
+ * themselves, ordered on mutual information, highest first:
+ *
+ *    magic version termCount k
+ *    start*(termCount+1)
+ *    (target count mi)*
+ *
+ * All fields are ints, except for the mutual information, which is a float.
+ * The index is read with positional reads, only the relations of the terms
+ * that are asked for are read.
+ */
+
+public class TopRelations implements Closeable {
+
+	static final int MAGIC = 0x5447544b;  // "TGTK"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16;
+	static final int ENTRY_SIZE = 12;
+
+	RandomAccessFile file;
+	FileChannel channel;
+	int termCount;
+	int k;
+
+
+	/**
+	 * Open an index.
+	 *
+	 * @param file The index file.
+	 * @throws IOException
+	 */
+
+	TopRelations(File file) throws IOException
+	{
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		ByteBuffer header = read(0, HEADER_SIZE);
+		if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+			close();
+			throw new IOException("not a related terms index: " + file); }
+		this.termCount = header.getInt();
+		this.k = header.getInt();
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+			if (this.channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("unexpected end of related terms index");
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Return the related terms of a technology, highest mutual information
+	 * first.
+	 *
+	 * @param technology The technology.
+	 * @param taxonomy The taxonomy the index belongs to.
+	 * @return A list of at most K relations with the technology as source.
+	 * @throws IOException
+	 */
+
+	List<CooccurrenceRelation> get(Technology technology, Taxonomy taxonomy) throws IOException
+	{
+		List<CooccurrenceRelation> relations = new ArrayList<>();
+		if (technology.id >= this.termCount)
+			return relations;
+		ByteBuffer starts = read(HEADER_SIZE + technology.id * 4L, 8);
+		int start = starts.getInt();
+		int end = starts.getInt();
+		long base = HEADER_SIZE + (this.termCount + 1) * 4L;
+		ByteBuffer entries = read(base + (long) start * ENTRY_SIZE, (end - start) * ENTRY_SIZE);
+		for (int i = start; i < end; i++) {
+			Technology target = taxonomy.getTechnology(entries.getInt());
+			int count = entries.getInt();
+			float mi = entries.getFloat();
+			relations.add(new CooccurrenceRelation(count, mi, technology, target)); }
+		return relations;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.file.close();
+	}
+
+}
@@ -0,0 +1,142 @@
+package edu.brandeis.tgist.taxonomy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Collects the K relations with the highest mutual information for each term,
+ * in a min-heap per term so that the lowest of the K is replaced first. Ties on
+ * mutual information go to the target with the lowest identifier.
+ *
+ * A heap is created when its term gets its first relation and doubles in size
+ * until it holds K, so terms with few or no relations take little memory. Each
+ * relation takes three ints in the heap: the target, the count and the bits of
+ * the mutual information.
+ */
+
+class TopRelationsBuilder {
+
+	private static final int INITIAL_SIZE = 4;
+
+	int k;
+	int[] sizes;
+	int[][] heaps;
+
+	TopRelationsBuilder(int termCount, int k)
+	{
+		this.k = Math.max(1, k);
+		this.sizes = new int[termCount];
+		this.heaps = new int[termCount][];
+	}
+
+	/**
+	 * Offer a relation of a term.
+	 */
+
+	void offer(int term, int target, int count, float mi)
+	{
+		int[] heap = this.heaps[term];
+		int size = this.sizes[term];
+		if (size < this.k) {
+			if (heap == null) {
+				heap = new int[3 * Math.min(this.k, INITIAL_SIZE)];
+				this.heaps[term] = heap;
+			} else if (heap.length == 3 * size) {
+				heap = Arrays.copyOf(heap, 3 * Math.min(this.k, 2 * size));
+				this.heaps[term] = heap; }
+			set(heap, size, target, count, mi);
+			this.sizes[term]++;
+			// sift up
+			for (int i = size; i > 0; ) {
+				int parent = (i - 1) / 2;
+				if (! worse(heap, i, parent))
+					break;
+				swap(heap, i, parent);
+				i = parent; }
+		} else if (better(mi, target, mi(heap, 0), heap[0])) {
+			set(heap, 0, target, count, mi);
+			// sift down
+			for (int i = 0; ; ) {
+				int child = 2 * i + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && worse(heap, child + 1, child))
+					child++;
+				if (! worse(heap, child, i))
+					break;
+				swap(heap, i, child);
+				i = child; }
+		}
+	}
+
+	private static boolean better(float mi1, int target1, float mi2, int target2)
+	{
+		return mi1 > mi2 || (mi1 == mi2 && target1 < target2);
+	}
+
+	private static boolean worse(int[] heap, int i, int j)
+	{
+		return better(mi(heap, j), heap[3 * j], mi(heap, i), heap[3 * i]);
+	}
+
+	private static float mi(int[] heap, int i)
+	{
+		return Float.intBitsToFloat(heap[3 * i + 2]);
+	}
+
+	private static void set(int[] heap, int i, int target, int count, float mi)
+	{
+		heap[3 * i] = target;
+		heap[3 * i + 1] = count;
+		heap[3 * i + 2] = Float.floatToRawIntBits(mi);
+	}
+
+	private static void swap(int[] heap, int i, int j)
+	{
+		for (int n = 0; n < 3; n++) {
+			int value = heap[3 * i + n];
+			heap[3 * i + n] = heap[3 * j + n];
+			heap[3 * j + n] = value; }
+	}
+
+	/**
+	 * Write the index. The heaps are sorted in place, best first.
+	 *
+	 * @param file The file to write to.
+	 * @throws IOException
+	 */
+
+	void write(File file) throws IOException
+	{
+		int termCount = this.sizes.length;
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(TopRelations.MAGIC);
+			out.writeInt(TopRelations.VERSION);
+			out.writeInt(termCount);
+			out.writeInt(this.k);
+			int start = 0;
+			for (int term = 0; term < termCount; term++) {
+				out.writeInt(start);
+				start += this.sizes[term]; }
+			out.writeInt(start);
+			for (int term = 0; term < termCount; term++) {
+				int[] heap = this.heaps[term];
+				int size = this.sizes[term];
+				// insertion sort, K is small
+				for (int i = 1; i < size; i++)
+					for (int j = i; j > 0 && worse(heap, j - 1, j); j--)
+						swap(heap, j, j - 1);
+				for (int i = 0; i < size; i++) {
+					out.writeInt(heap[3 * i]);
+					out.writeInt(heap[3 * i + 1]);
+					out.writeFloat(mi(heap, i)); }
+			}
+		}
+	}
+
+}
@@ -4,12 +4,14 @@ import static edu.brandeis.tgist.taxonomy.Utils.BLUE;
 import static edu.brandeis.tgist.taxonomy.Utils.BOLD;
 import static edu.brandeis.tgist.taxonomy.Utils.END;
 import static edu.brandeis.tgist.taxonomy.Utils.UNDER;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 public class UserLoop {
@@ -111,17 +113,16 @@ public class UserLoop {
 	private static int printCooccurrenceRelations(
 			Technology tech, HashMap<Integer, String> mappings, int idx) {
 
-		Object[] sortedRelations = tech.relations.values().toArray();
-		Arrays.sort(sortedRelations);
-		if (sortedRelations.length == 0) return idx;
+		List<CooccurrenceRelation> relations;
+		try {
+			relations = taxonomy.getRelatedTerms(tech, 20);
+		} catch (IOException ex) {
+			Logger.getLogger(UserLoop.class.getName()).log(Level.SEVERE, null, ex);
+			return idx; }
+		if (relations.isEmpty()) return idx;
 		System.out.println("\n" + UNDER + "Related terms:" + END + "\n");
-		int relCount = 0;
-		for (Object obj : sortedRelations) {
+		for (CooccurrenceRelation rel : relations) {
 			idx++;
-			relCount++;
-			if (relCount > 20) break;
-			CooccurrenceRelation rel = (CooccurrenceRelation) obj;
-			String relTarget = rel.target.name;
 			mappings.put(idx, rel.target.name);
 			System.out.println(String.format("    [%d] %s", idx, rel.target.name));
 		}
@@ -136,15 +137,10 @@ public class UserLoop {
 		Object[] sortedRelations = tech.termRelations.toArray();
 		Arrays.sort(sortedRelations);
 
-		Set<String> rels = new HashSet<>();
-
 		System.out.println("\n" + UNDER + "Relations:" + END + "\n");
 		for (Object obj : sortedRelations) {
 			TermRelation rel = (TermRelation) obj;
-			String sig = rel.getSignature();
-			if (rels.contains(sig)) continue;
 			idx++;
-			rels.add(sig);
 			String term1 = rel.source.name;
 			String term2 = rel.target.name;
 			String mapped_term = tech.name.equals(term1) ? term2 : term1;